@@ -0,0 +1,110 @@
+package com.iot.project;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Détection en ligne : chaque nouvelle valeur d'une paire (moyenne par ligne du résumé) est comparée
+// à la moyenne / l'écart-type courants de l'état consolidé, avant fusion (z-score, O(1) par paire).
+// Une paire n'est signalée qu'une fois par lot (z le plus fort).
+public class AnomalyDetector {
+
+    // |z| à partir duquel une valeur est anormale
+    private static final double Z_THRESHOLD =
+            Double.parseDouble(System.getProperty("iot.anomaly.zThreshold", "4.0"));
+
+    // Observations minimales dans l'historique d'une paire avant de juger (écart-type fiable)
+    private static final long MIN_HISTORY =
+            Long.getLong("iot.anomaly.minHistory", 5L);
+
+    // Plancher de l'écart-type : une série constante ne déclenche pas sur un écart de 1
+    private static final double MIN_STD = 1.0;
+
+    static class Anomaly {
+        final String srcIp;
+        final String dstIp;
+        final String metric;
+        final double value;
+        final double mean;
+        final double std;
+        final double z;
+        final String source;
+
+        Anomaly(String srcIp, String dstIp, String metric, double value,
+                double mean, double std, double z, String source) {
+            this.srcIp = srcIp;
+            this.dstIp = dstIp;
+            this.metric = metric;
+            this.value = value;
+            this.mean = mean;
+            this.std = std;
+            this.z = z;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s -> %s : %s = %.1f (moyenne %.1f, écart-type %.1f, z = %.1f) [%s]",
+                    srcIp, dstIp, metric, value, mean, std, z, source);
+        }
+    }
+
+    // Clé "SrcIP|DstIP" -> anomalie la plus forte du lot
+    private final Map<String, Anomaly> byPair = new HashMap<>();
+
+    // pair : "SrcIP|DstIP" ; previous : stats de la paire avant fusion (null si nouvelle) ;
+    // delta : apport du résumé. Aucune allocation tant que la paire n'est pas anormale.
+    public void check(String pair, ConsolidatorWorker.Stats previous,
+                      ConsolidatorWorker.Stats delta, String source) {
+        if (previous == null || previous.count < MIN_HISTORY || delta.count == 0) {
+            return;
+        }
+
+        check(pair, "FlowDuration", previous.sumFlow, previous.sumFlowSq, previous.count,
+                delta.sumFlow / delta.count, source);
+        check(pair, "FwdPkt", previous.sumFwd, previous.sumFwdSq, previous.count,
+                delta.sumFwd / delta.count, source);
+    }
+
+    private void check(String pair, String metric, double sum, double sumSq, long count,
+                       double value, String source) {
+        double mean = sum / count;
+        double std = Math.sqrt(Math.max(sumSq / count - mean * mean, 0));
+        double z = (value - mean) / Math.max(std, MIN_STD);
+        if (Math.abs(z) < Z_THRESHOLD) {
+            return;
+        }
+
+        Anomaly current = byPair.get(pair);
+        if (current == null || Math.abs(z) > Math.abs(current.z)) {
+            String[] parts = pair.split("\\|", 2);
+            byPair.put(pair, new Anomaly(parts[0], parts[1], metric, value, mean, std, z, source));
+        }
+    }
+
+    public void addAll(AnomalyDetector other) {
+        for (Anomaly a : other.byPair.values()) {
+            Anomaly current = byPair.get(a.srcIp + "|" + a.dstIp);
+            if (current == null || Math.abs(a.z) > Math.abs(current.z)) {
+                byPair.put(a.srcIp + "|" + a.dstIp, a);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return byPair.isEmpty();
+    }
+
+    public int size() {
+        return byPair.size();
+    }
+
+    // Anomalies par |z| décroissant
+    public List<Anomaly> anomalies() {
+        List<Anomaly> list = new ArrayList<>(byPair.values());
+        list.sort(Comparator.comparingDouble((Anomaly a) -> Math.abs(a.z)).reversed());
+        return list;
+    }
+}
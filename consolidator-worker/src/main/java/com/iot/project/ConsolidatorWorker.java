@@ -7,7 +7,11 @@ import com.opencsv.exceptions.CsvValidationException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ConsolidatorWorker {
@@ -19,11 +23,45 @@ public class ConsolidatorWorker {
         double sumFlowSq;
         double sumFwd;
         double sumFwdSq;
+
+        void add(Stats other) {
+            count     += other.count;
+            sumFlow   += other.sumFlow;
+            sumFlowSq += other.sumFlowSq;
+            sumFwd    += other.sumFwd;
+            sumFwdSq  += other.sumFwdSq;
+        }
+    }
+
+    // Reçoit une paire (SrcIP, DstIP) et ses stats
+    public interface PairVisitor {
+        void visit(String srcIp, String dstIp, Stats s) throws IOException;
+    }
+
+    // Ensemble de paires parcourable (Map en mémoire ou table off-heap)
+    public interface PairSource {
+        void forEach(PairVisitor visitor) throws IOException;
     }
 
     public static void main(String[] args) {
+        // Fusion en flux de fichiers triés, à mémoire bornée (voir MergeJoinConsolidator)
+        if (args.length >= 4 && args[0].equals("merge")) {
+            String previousCsv = args[1].equals("-") ? null : args[1];
+            String outputCsv = args[2];
+            try {
+                long pairs = MergeJoinConsolidator.consolidate(previousCsv,
+                        Arrays.asList(args).subList(3, args.length), outputCsv);
+                System.out.println("✔ Fichier consolidé généré (fusion triée, " + pairs + " paires) : " + outputCsv);
+            } catch (Exception e) {
+                System.err.println("Erreur pendant la consolidation : " + e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+
         if (args.length != 2) {
             System.out.println("Usage: java ConsolidatorWorker <summaryCsvPath> <outputConsolidatedCsvPath>");
+            System.out.println("       java ConsolidatorWorker merge <previousConsolidatedCsv|-> <outputConsolidatedCsvPath> <summaryCsvPath>...");
             System.exit(1);
         }
 
@@ -44,8 +82,43 @@ public class ConsolidatorWorker {
 
         // Map : clé "SrcIP|DstIP" -> Stats
         Map<String, Stats> statsByPair = new HashMap<>();
+        accumulateSummary(summaryCsv, List.of(statsByPair));
+        writeConsolidated(statsByPair, outputCsv);
+    }
+
+    // Fusionne un résumé dans un consolidated.csv existant (null si aucun état précédent)
+    public static void consolidate(String summaryCsv, String previousConsolidatedCsv, String outputCsv)
+            throws IOException, CsvValidationException {
+
+        Map<String, Stats> statsByPair = new HashMap<>();
+        if (previousConsolidatedCsv != null) {
+            loadConsolidated(previousConsolidatedCsv, statsByPair);
+        }
+        accumulateSummary(summaryCsv, List.of(statsByPair));
+        writeConsolidated(statsByPair, outputCsv);
+    }
+
+    // Shard d'une paire : fonction de SrcIP uniquement (String.hashCode est stable entre JVM)
+    public static int shardOf(String srcIp, int shardCount) {
+        return Math.floorMod(srcIp.hashCode(), shardCount);
+    }
+
+    // Ajoute les lignes d'un résumé dans la map de leur shard (une seule passe sur le fichier).
+    // Une seule map = pas de sharding.
+    public static void accumulateSummary(String summaryCsv, List<Map<String, Stats>> shardMaps)
+            throws IOException, CsvValidationException {
+        accumulateSummary(summaryCsv, shardMaps, null);
+    }
+
+    // Idem, et si dateMaps != null (une map par shard, comme shardMaps) : stats par Date puis par paire,
+    // pour les rollups journaliers / hebdomadaires
+    public static void accumulateSummary(String summaryCsv, List<Map<String, Stats>> shardMaps,
+                                         List<Map<String, Map<String, Stats>>> dateMaps)
+            throws IOException, CsvValidationException {
+
+        int shardCount = shardMaps.size();
 
-        try (CSVReader reader = new CSVReader(new FileReader(summaryCsv))) {
+        try (CSVReader reader = new CSVReader(new FileReader(summaryCsv, StandardCharsets.UTF_8))) {
 
             // Lire l'entête
             String[] header = reader.readNext();
@@ -59,7 +132,8 @@ public class ConsolidatorWorker {
             int idxFlow   = findIndex(header, "TotalFlowDuration");
             int idxFwdPkt = findIndex(header, "TotalFwdPkt");
 
-            if (idxSrcIp == -1 || idxDstIp == -1 || idxFlow == -1 || idxFwdPkt == -1) {
+            if (idxSrcIp == -1 || idxDstIp == -1 || idxFlow == -1 || idxFwdPkt == -1
+                    || (dateMaps != null && idxDate == -1)) {
                 throw new IOException("Colonnes manquantes dans le fichier résumé.");
             }
 
@@ -70,6 +144,8 @@ public class ConsolidatorWorker {
                 lineCount++;
 
                 String srcIp = line[idxSrcIp];
+                int shard = (shardCount == 1) ? 0 : shardOf(srcIp, shardCount);
+                Map<String, Stats> statsByPair = shardMaps.get(shard);
                 String dstIp = line[idxDstIp];
                 String flowStr = line[idxFlow];
                 String fwdStr  = line[idxFwdPkt];
@@ -79,75 +155,208 @@ public class ConsolidatorWorker {
 
                 String key = srcIp + "|" + dstIp;
 
-                Stats s = statsByPair.get(key);
-                if (s == null) {
-                    s = new Stats();
-                    statsByPair.put(key, s);
+                addRow(statsByPair, key, flow, fwd);
+                if (dateMaps != null) {
+                    addRow(dateMaps.get(shard).computeIfAbsent(line[idxDate], d -> new HashMap<>()),
+                            key, flow, fwd);
                 }
-
-                s.count++;
-                s.sumFlow   += flow;
-                s.sumFlowSq += flow * flow;
-                s.sumFwd    += fwd;
-                s.sumFwdSq  += fwd * fwd;
             }
 
             System.out.println("Lignes de résumé lues : " + lineCount);
-            System.out.println("Nombre de paires (SrcIP,DstIP) : " + statsByPair.size());
+            System.out.println("Nombre de shards touchés : "
+                    + shardMaps.stream().filter(m -> !m.isEmpty()).count() + "/" + shardCount);
+        }
+    }
+
+    // Une ligne de résumé = une observation (count + 1) pour la paire
+    private static void addRow(Map<String, Stats> statsByPair, String key, double flow, double fwd) {
+        Stats s = statsByPair.get(key);
+        if (s == null) {
+            s = new Stats();
+            statsByPair.put(key, s);
+        }
+
+        s.count++;
+        s.sumFlow   += flow;
+        s.sumFlowSq += flow * flow;
+        s.sumFwd    += fwd;
+        s.sumFwdSq  += fwd * fwd;
+    }
+
+    // Recharge un consolidated.csv dans une Map
+    public static void loadConsolidated(String consolidatedCsv, Map<String, Stats> statsByPair)
+            throws IOException, CsvValidationException {
+        readConsolidated(consolidatedCsv, (srcIp, dstIp, s) ->
+                statsByPair.merge(srcIp + "|" + dstIp, s, (a, b) -> {
+                    a.add(b);
+                    return a;
+                }));
+    }
+
+    // Lit un consolidated.csv : reconstruit les sommes à partir de Count / Mean / Std
+    public static void readConsolidated(String consolidatedCsv, PairVisitor visitor)
+            throws IOException, CsvValidationException {
+
+        try (CSVReader reader = new CSVReader(new FileReader(consolidatedCsv, StandardCharsets.UTF_8))) {
+
+            String[] header = reader.readNext();
+            if (header == null) {
+                return; // fichier vide = pas d'état précédent
+            }
+
+            int idxSrcIp    = findIndex(header, "SrcIP");
+            int idxDstIp    = findIndex(header, "DstIP");
+            int idxCount    = findIndex(header, "Count");
+            int idxMeanFlow = findIndex(header, "MeanFlowDuration");
+            int idxStdFlow  = findIndex(header, "StdFlowDuration");
+            int idxMeanFwd  = findIndex(header, "MeanFwdPkt");
+            int idxStdFwd   = findIndex(header, "StdFwdPkt");
+
+            if (idxSrcIp == -1 || idxDstIp == -1 || idxCount == -1 || idxMeanFlow == -1
+                    || idxStdFlow == -1 || idxMeanFwd == -1 || idxStdFwd == -1) {
+                throw new IOException("Colonnes manquantes dans le fichier consolidé.");
+            }
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                long count = (long) parseDoubleSafe(line[idxCount]);
+                double meanFlow = parseDoubleSafe(line[idxMeanFlow]);
+                double stdFlow  = parseDoubleSafe(line[idxStdFlow]);
+                double meanFwd  = parseDoubleSafe(line[idxMeanFwd]);
+                double stdFwd   = parseDoubleSafe(line[idxStdFwd]);
+
+                visitor.visit(line[idxSrcIp], line[idxDstIp], fromMeanStd(count, meanFlow, stdFlow, meanFwd, stdFwd));
+            }
+        }
+    }
+
+    // Stats d'une ligne de consolidated.csv : sum = mean * n ; sumSq = (std^2 + mean^2) * n
+    static Stats fromMeanStd(long count, double meanFlow, double stdFlow, double meanFwd, double stdFwd) {
+        Stats s = new Stats();
+        s.count     = count;
+        s.sumFlow   = meanFlow * count;
+        s.sumFlowSq = (stdFlow * stdFlow + meanFlow * meanFlow) * count;
+        s.sumFwd    = meanFwd * count;
+        s.sumFwdSq  = (stdFwd * stdFwd + meanFwd * meanFwd) * count;
+        return s;
+    }
+
+    // Fichier consolidé trié par (SrcIP, DstIP) (KeySorter.KEY_ORDER) : déterministe, fusionnable en flux
+    public static void writeConsolidated(Map<String, Stats> statsByPair, String outputCsv)
+            throws IOException {
+        String[] keys = new String[statsByPair.size()];
+        Stats[] stats = new Stats[keys.length];
+        int n = 0;
+        for (Map.Entry<String, Stats> entry : statsByPair.entrySet()) {
+            keys[n] = entry.getKey();
+            stats[n++] = entry.getValue();
+        }
+
+        try (CsvRowWriter writer = openConsolidated(outputCsv)) {
+            for (int i : KeySorter.sortedOrder(keys)) {
+                // SrcIP et DstIP recopiées depuis la clé "SrcIP|DstIP", sans découpage
+                String key = keys[i];
+                int separator = key.indexOf('|');
+                writer.field(key, 0, separator).field(key, separator + 1, key.length());
+                writeStats(writer, stats[i]);
+            }
+        }
+    }
+
+    // pairs doit être parcourue dans l'ordre (SrcIP, DstIP) (cas de OffHeapPairTable)
+    public static void writeConsolidated(PairSource pairs, String outputCsv)
+            throws IOException {
+        try (CsvRowWriter writer = openConsolidated(outputCsv)) {
+            pairs.forEach((srcIp, dstIp, s) -> writeStats(writer.field(srcIp).field(dstIp), s));
         }
+    }
 
-        // Écrire le fichier consolidé
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outputCsv))) {
+    static CsvRowWriter openConsolidated(String outputCsv) throws IOException {
+        CsvRowWriter writer = new CsvRowWriter(outputCsv);
+        try {
             // entête
-            String[] outHeader = {
-                    "SrcIP", "DstIP",
+            writer.row("SrcIP", "DstIP",
                     "Count",
                     "MeanFlowDuration", "StdFlowDuration",
-                    "MeanFwdPkt", "StdFwdPkt"
+                    "MeanFwdPkt", "StdFwdPkt");
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    // Count, moyennes et écarts-types de la paire, puis fin de ligne
+    static void writeStats(CsvRowWriter writer, Stats s) throws IOException {
+        double meanFlow = (s.count > 0) ? (s.sumFlow / s.count) : 0.0;
+        double meanFwd  = (s.count > 0) ? (s.sumFwd / s.count) : 0.0;
+
+        // variance = E[x^2] - (E[x])^2
+        double varFlow = (s.count > 0)
+                ? (s.sumFlowSq / s.count) - (meanFlow * meanFlow)
+                : 0.0;
+        double varFwd = (s.count > 0)
+                ? (s.sumFwdSq / s.count) - (meanFwd * meanFwd)
+                : 0.0;
+
+        if (varFlow < 0) varFlow = 0; // pour éviter -0
+        if (varFwd < 0)  varFwd  = 0;
+
+        writer.field(s.count)
+                .field(meanFlow)
+                .field(Math.sqrt(varFlow))
+                .field(meanFwd)
+                .field(Math.sqrt(varFwd))
+                .endRow();
+    }
+
+    // Vue interrogeable des top-K : une ligne par paire et par métrique (Packets, Duration).
+    // Estimate surestime la vraie valeur d'au plus MaxError (Space-Saving).
+    public static void writeTopK(TrafficSketches sketches, int k, String outputCsv) throws IOException {
+        try (CSVWriter writer = new CSVWriter(new FileWriter(outputCsv, StandardCharsets.UTF_8))) {
+            String[] outHeader = {"Metric", "Rank", "SrcIP", "DstIP", "Estimate", "MaxError"};
+            writer.writeNext(outHeader);
+
+            writeTopK(writer, "Packets", sketches.topPackets(k));
+            writeTopK(writer, "Duration", sketches.topDuration(k));
+        }
+    }
+
+    private static void writeTopK(CSVWriter writer, String metric, List<SpaceSavingSketch.Counter> top) {
+        int rank = 0;
+        for (SpaceSavingSketch.Counter c : top) {
+            String[] pair = c.key().split("\\|", 2);
+            String[] row = {
+                    metric,
+                    String.valueOf(++rank),
+                    pair[0],
+                    pair[1],
+                    String.valueOf(c.count()),
+                    String.valueOf(c.error())
             };
+            writer.writeNext(row);
+        }
+    }
+
+    // Vue interrogeable du fan-out : DstIP distinctes estimées par SrcIP (HyperLogLog), décroissant
+    public static void writeFanout(TrafficSketches sketches, String outputCsv) throws IOException {
+        List<Map.Entry<String, Long>> estimates = new ArrayList<>();
+        for (Map.Entry<String, HyperLogLog> e : sketches.fanout().entrySet()) {
+            estimates.add(Map.entry(e.getKey(), e.getValue().estimate()));
+        }
+        estimates.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        try (CSVWriter writer = new CSVWriter(new FileWriter(outputCsv, StandardCharsets.UTF_8))) {
+            String[] outHeader = {"SrcIP", "DistinctDstIP"};
             writer.writeNext(outHeader);
 
-            for (Map.Entry<String, Stats> entry : statsByPair.entrySet()) {
-                String key = entry.getKey();
-                Stats s = entry.getValue();
-
-                String[] parts = key.split("\\|", 2);
-                String srcIp = parts[0];
-                String dstIp = parts[1];
-
-                double meanFlow = (s.count > 0) ? (s.sumFlow / s.count) : 0.0;
-                double meanFwd  = (s.count > 0) ? (s.sumFwd / s.count) : 0.0;
-
-                // variance = E[x^2] - (E[x])^2
-                double varFlow = (s.count > 0)
-                        ? (s.sumFlowSq / s.count) - (meanFlow * meanFlow)
-                        : 0.0;
-                double varFwd = (s.count > 0)
-                        ? (s.sumFwdSq / s.count) - (meanFwd * meanFwd)
-                        : 0.0;
-
-                if (varFlow < 0) varFlow = 0; // pour éviter -0
-                if (varFwd < 0)  varFwd  = 0;
-
-                double stdFlow = Math.sqrt(varFlow);
-                double stdFwd  = Math.sqrt(varFwd);
-
-                String[] row = {
-                        srcIp,
-                        dstIp,
-                        String.valueOf(s.count),
-                        String.valueOf(meanFlow),
-                        String.valueOf(stdFlow),
-                        String.valueOf(meanFwd),
-                        String.valueOf(stdFwd)
-                };
-
-                writer.writeNext(row);
+            for (Map.Entry<String, Long> e : estimates) {
+                writer.writeNext(new String[]{e.getKey(), String.valueOf(e.getValue())});
             }
         }
     }
 
-    private static int findIndex(String[] header, String colName) {
+    static int findIndex(String[] header, String colName) {
         for (int i = 0; i < header.length; i++) {
             if (colName.equals(header[i].trim())) {
                 return i;
@@ -156,7 +365,7 @@ public class ConsolidatorWorker {
         return -1;
     }
 
-    private static double parseDoubleSafe(String value) {
+    static double parseDoubleSafe(String value) {
         try {
             return Double.parseDouble(value.trim());
         } catch (Exception e) {
@@ -2,11 +2,18 @@ package com.iot.project;
 
 import com.opencsv.exceptions.CsvValidationException;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 import software.amazon.awssdk.services.sns.SnsClient;
@@ -17,7 +24,23 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ConsolidatorWorkerAws {
 
@@ -30,53 +53,179 @@ public class ConsolidatorWorkerAws {
     private static final String ALERT_TOPIC_ARN =
             "REPLACE_ME_SNS_TOPIC_ARN";
 
+    // Métadonnée posée sur consolidated.csv : résumés appliqués mais pas encore confirmés par le ledger
+    // (un id clé@etag, ou l'id d'un manifeste qui en liste plusieurs)
+    private static final String APPLIED_SUMMARY_METADATA = "applied-summary";
+
+    // Nombre de shards de l'état consolidé (partitionné par hash de SrcIP).
+    // 1 = fichier unique consolidated/consolidated.csv (comportement historique).
+    // Plusieurs consolidateurs peuvent tourner en parallèle : les écritures sont conditionnelles.
+    private static final int CONSOLIDATED_SHARDS =
+            Integer.getInteger("iot.consolidated.shards", 1);
+
+    // Nombre max de fusions retentées sur conflit d'écriture
+    private static final int MAX_COMMIT_ATTEMPTS =
+            Integer.getInteger("iot.consolidated.maxCommitAttempts", 10);
+
+    // Micro-batching : nombre max de messages par lot et attente max après le premier message.
+    // Par défaut 1 message = une réécriture et une notification par résumé (comportement historique).
+    private static final int BATCH_MAX_MESSAGES =
+            Integer.getInteger("iot.consolidator.batchMaxMessages", 1);
+    private static final long BATCH_MAX_WAIT_MS =
+            Long.getLong("iot.consolidator.batchMaxWaitMs", 0L);
+
+    // Fusion des sketches des résumés (top-K, fan-out) et publication de leurs vues. Désactivée par
+    // défaut : une lecture-réécriture conditionnelle S3 et deux PUT de vues de plus par shard et par lot.
+    private static final boolean SKETCHES = Boolean.getBoolean("iot.consolidator.sketches");
+
+    // Nombre de paires publiées dans les vues top-K (consolidated/.../topk*.csv)
+    private static final int SKETCH_TOP_K =
+            Integer.getInteger("iot.sketch.topK", 100);
+
+    // Nombre max d'anomalies détaillées dans une alerte SNS (les plus fortes d'abord)
+    private static final int ANOMALY_MAX_REPORTED =
+            Integer.getInteger("iot.anomaly.maxReported", 50);
+
+    // Rollups matérialisés, partitionnés par date : "daily" (rollups/daily/date=AAAA-MM-JJ/)
+    // et/ou "weekly" (rollups/weekly/week=<lundi AAAA-MM-JJ>/). Vide (défaut) = pas de rollups :
+    // chaque granularité ajoute au moins une lecture-réécriture conditionnelle S3 par lot.
+    private static final Set<String> ROLLUPS =
+            new HashSet<>(Arrays.asList(System.getProperty("iot.rollups", "").split("\\s*,\\s*")));
+
+    // Préfixes des identifiants de manifeste posés en métadonnée : "pending-" = manifeste propre à un
+    // objet d'état ; "batch-" = ancien manifeste de lot, partagé par tous les objets écrits par le lot
+    private static final String PENDING_ID_PREFIX = "pending-";
+    private static final String BATCH_ID_PREFIX = "batch-";
+
+    // Fusion en flux (merge-join) de l'état trié d'un shard et du delta trié du lot : l'état n'est
+    // jamais chargé en mémoire (voir MergeJoinConsolidator). Prioritaire sur la table off-heap.
+    private static final boolean MERGE_JOIN = Boolean.getBoolean("iot.consolidator.mergeJoin");
+
+    // Répertoire local des tables off-heap (une par shard, fichiers mappés en mémoire).
+    // Non défini = état chargé dans une HashMap à chaque commit (comportement historique).
+    private static final Path OFFHEAP_DIR = (System.getProperty("iot.consolidator.offheapDir") == null || MERGE_JOIN)
+            ? null
+            : Paths.get(System.getProperty("iot.consolidator.offheapDir"));
+
 
     private final S3Client s3;
     private final SqsClient sqs;
     private final SnsClient sns;
+    private final ProcessingLedger ledger;
+
+    // Tables off-heap des shards commités par ce worker (clé : fichier local)
+    private final Map<Path, OffHeapPairTable> offHeapTables = new HashMap<>();
+    // Shards trop grands pour une table off-heap (OffHeapPairTable.MAX_PAIRS) : fusionnés en Map
+    private final Set<Path> oversizedShards = ConcurrentHashMap.newKeySet();
+
+    // Lots consolidés en parallèle (AIMD : baisse sur throttling S3/SQS et sur les conflits
+    // d'écriture 412/409 entre lots concurrents) et signal de charge pour l'autoscaling
+    private final AdaptiveConcurrency concurrency = AdaptiveConcurrency.fromSystemProperties(4);
+    private final LoadReporter loadReporter;
 
     public ConsolidatorWorkerAws() {
         this.s3 = S3Client.builder()
                 .region(REGION)
                 .credentialsProvider(DefaultCredentialsProvider.create())
+                .overrideConfiguration(o -> o.addExecutionInterceptor(concurrency))
                 .build();
 
         this.sqs = SqsClient.builder()
                 .region(REGION)
                 .credentialsProvider(DefaultCredentialsProvider.create())
+                .overrideConfiguration(o -> o.addExecutionInterceptor(concurrency))
                 .build();
 
         this.sns = SnsClient.builder()
                 .region(REGION)
                 .credentialsProvider(DefaultCredentialsProvider.create())
                 .build();
+
+        this.ledger = new ProcessingLedger(s3, "consolidate");
+        this.loadReporter = new LoadReporter("consolidate", sqs, CONSOLIDATE_QUEUE_URL, s3, concurrency);
     }
 
 
     public static void main(String[] args) {
         ConsolidatorWorkerAws worker = new ConsolidatorWorkerAws();
-        System.out.println("ConsolidatorWorker AWS démarré, écoute consolidate-queue...");
+        System.out.println("ConsolidatorWorker AWS démarré, écoute consolidate-queue (concurrence max "
+                + worker.concurrency.maxLimit() + ")...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(worker.concurrency.maxLimit());
+        worker.loadReporter.start();
 
         while (true) {
             try {
-                worker.pollOnce();
+                worker.pollOnce(pool);
+                worker.concurrency.pollSucceeded();
             } catch (Exception e) {
                 e.printStackTrace();
-                try { Thread.sleep(5000); } catch (InterruptedException ignored) {}
+                // attente exponentielle avec jitter (au lieu d'une pause fixe)
+                long delayMs = worker.concurrency.pollFailed(e);
+                System.err.println("Erreur lors du poll SQS, nouvel essai dans " + delayMs + " ms");
+                try { Thread.sleep(delayMs); } catch (InterruptedException ignored) {}
             }
         }
     }
 
-    private void pollOnce() throws IOException, CsvValidationException {
+    // Reçoit un lot quand la limite de concurrence le permet et le confie au pool
+    private void pollOnce(ExecutorService pool) throws InterruptedException {
+        concurrency.awaitCapacity();
 
-        ReceiveMessageRequest req = ReceiveMessageRequest.builder()
-                .queueUrl(CONSOLIDATE_QUEUE_URL)
-                .maxNumberOfMessages(1)
-                .waitTimeSeconds(20)
-                .build();
+        // Micro-batching : on accumule jusqu'à BATCH_MAX_MESSAGES messages ou BATCH_MAX_WAIT_MS
+        // après le premier message. Le délai doit rester sous le visibility timeout de la file.
+        List<Message> messages = new ArrayList<>();
+        long deadline = 0;
+
+        while (messages.size() < BATCH_MAX_MESSAGES) {
+            long remainingMs = messages.isEmpty() ? 20_000 : deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                break;
+            }
+
+            ReceiveMessageRequest req = ReceiveMessageRequest.builder()
+                    .queueUrl(CONSOLIDATE_QUEUE_URL)
+                    .maxNumberOfMessages(Math.min(10, BATCH_MAX_MESSAGES - messages.size()))
+                    .waitTimeSeconds((int) Math.min(20, remainingMs / 1000))
+                    .build();
+
+            List<Message> received = sqs.receiveMessage(req).messages();
+            if (received.isEmpty() && messages.isEmpty()) {
+                return;
+            }
+            if (messages.isEmpty()) {
+                deadline = System.currentTimeMillis() + BATCH_MAX_WAIT_MS;
+            }
+            messages.addAll(received);
+            if (received.isEmpty()) {
+                break;
+            }
+        }
 
-        List<Message> messages = sqs.receiveMessage(req).messages();
-        if (messages.isEmpty()) return;
+        concurrency.acquire();
+        pool.execute(() -> processInPool(messages));
+    }
+
+    // Un échec laisse les messages non acquittés dans la file (nouvelle tentative / DLQ)
+    private void processInPool(List<Message> messages) {
+        boolean success = false;
+        try {
+            processMessages(messages);
+            success = true;
+        } catch (Exception e) {
+            System.err.println("Échec de la consolidation du lot (" + messages.size() + " message(s)) : "
+                    + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            concurrency.release(success);
+        }
+    }
+
+    private void processMessages(List<Message> messages) throws IOException, CsvValidationException {
+
+        // Résumés à appliquer, regroupés par bucket
+        Map<String, List<PendingSummary>> pendingByBucket = new LinkedHashMap<>();
+        Set<String> batchIds = new HashSet<>();
 
         for (Message m : messages) {
             String body = m.body();
@@ -91,79 +240,840 @@ public class ConsolidatorWorkerAws {
                 continue;
             }
 
-            process(bucket, key, m);
+            // etag = ETag du fichier brut d'origine (absent des anciens messages)
+            String etag = extractJson(body, "etag");
+            if (etag == null) {
+                etag = ProcessingLedger.normalizeEtag(
+                        s3.headObject(HeadObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .build()).eTag());
+            }
+
+            // Résumé partitionné : même nombre de shards => un seul shard consolidé touché
+            String shards = extractJson(body, "shards");
+            if (shards != null && !shards.equals(String.valueOf(CONSOLIDATED_SHARDS))) {
+                System.out.println("Attention : résumé en " + shards + " shards, état consolidé en "
+                        + CONSOLIDATED_SHARDS + " (les lignes seront re-réparties).");
+            }
+
+            // Idempotence : résumé déjà appliqué (ledger) ou présent deux fois dans le lot
+            if (ledger.isProcessed(bucket, key, etag) || !batchIds.add(bucket + "/" + key + "@" + etag)) {
+                System.out.println("Résumé déjà consolidé (ledger) : " + key + "@" + etag + " → message supprimé.");
+                deleteMessage(m);
+                loadReporter.recordCompleted(1, 0);
+                continue;
+            }
+
+            // Sketches du résumé : fusionnables seulement s'ils couvrent un seul shard consolidé
+            String sketchKey = SKETCHES ? extractJson(body, "sketch") : null;
+            int sketchShard = -1;
+            if (sketchKey != null) {
+                if (CONSOLIDATED_SHARDS == 1) {
+                    sketchShard = 0;
+                } else if (shards != null && shards.equals(String.valueOf(CONSOLIDATED_SHARDS))) {
+                    sketchShard = Integer.parseInt(extractJson(body, "shard"));
+                } else {
+                    System.out.println("Sketches ignorés (partitionnement différent de l'état consolidé) : "
+                            + sketchKey);
+                    sketchKey = null;
+                }
+            }
+
+            try {
+                pendingByBucket.computeIfAbsent(bucket, b -> new ArrayList<>())
+                        .add(loadSummary(bucket, key, etag, m, sketchKey, sketchShard));
+            } catch (NoSuchKeyException e) {
+                // Le message reste dans la file (nouvelle tentative / DLQ), le reste du lot continue
+                System.err.println("Résumé introuvable, message laissé dans la file : " + bucket + "/" + key);
+            }
+        }
+
+        for (Map.Entry<String, List<PendingSummary>> entry : pendingByBucket.entrySet()) {
+            processBatch(entry.getKey(), entry.getValue());
         }
     }
 
-    private void process(String bucket, String summaryKey, Message msg)
+    // Télécharge un résumé et répartit ses lignes par shard (hash de SrcIP), en une passe
+    private PendingSummary loadSummary(String bucket, String summaryKey, String etag, Message msg,
+                                       String sketchKey, int sketchShard)
             throws IOException, CsvValidationException {
 
         System.out.println("Traitement résumé S3 : " + bucket + "/" + summaryKey);
 
         Path tempSummary = Files.createTempFile("summary-", ".csv");
-        Path tempConsolidated = Files.createTempFile("consolidated-", ".csv");
 
         try {
-            // 1 - Télécharger le résumé depuis S3
             GetObjectRequest getReq = GetObjectRequest.builder()
                     .bucket(bucket)
                     .key(summaryKey)
                     .build();
+            // toFile() refuse d'écraser un fichier existant
+            Files.deleteIfExists(tempSummary);
             s3.getObject(getReq, ResponseTransformer.toFile(tempSummary));
 
-            // 2 - Télécharger l'ancien consolidated.csv (s'il existe)
-            Path finalConsolidated = tempConsolidated;
-            String consolidatedKey = "consolidated/consolidated.csv";
+            PendingSummary pending = new PendingSummary(msg, summaryKey, etag);
+            List<Map<String, Map<String, ConsolidatorWorker.Stats>>> dateMaps = null;
+            for (int i = 0; i < CONSOLIDATED_SHARDS; i++) {
+                pending.shardMaps.add(new HashMap<>());
+            }
+            if (ROLLUPS.contains("daily") || ROLLUPS.contains("weekly")) {
+                dateMaps = new ArrayList<>();
+                for (int i = 0; i < CONSOLIDATED_SHARDS; i++) {
+                    dateMaps.add(new HashMap<>());
+                }
+            }
+            ConsolidatorWorker.accumulateSummary(tempSummary.toString(), pending.shardMaps, dateMaps);
+            if (dateMaps != null) {
+                addRollupDeltas(pending, dateMaps);
+            }
 
-            try {
-                GetObjectRequest getOld = GetObjectRequest.builder()
-                        .bucket(bucket)
-                        .key(consolidatedKey)
-                        .build();
-                s3.getObject(getOld, ResponseTransformer.toFile(tempConsolidated));
-            } catch (Exception e) {
-                System.out.println("Pas de consolidated.csv existant. Création d'un nouveau.");
+            if (sketchKey != null) {
+                try {
+                    Files.deleteIfExists(tempSummary);
+                    s3.getObject(GetObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(sketchKey)
+                            .build(), ResponseTransformer.toFile(tempSummary));
+                    pending.sketches = TrafficSketches.readFrom(tempSummary);
+                    pending.sketchShard = sketchShard;
+                } catch (NoSuchKeyException e) {
+                    // Les stats restent exactes : seules les vues approximatives manqueront ce résumé
+                    System.err.println("Sketches introuvables, ignorés : " + bucket + "/" + sketchKey);
+                }
             }
+            return pending;
 
-            // 3 - Lancer la consolidation locale
-            System.out.println("Consolidation en cours...");
-            ConsolidatorWorker.consolidate(
-                    tempSummary.toString(),
-                    finalConsolidated.toString()
-            );
+        } finally {
+            Files.deleteIfExists(tempSummary);
+        }
+    }
 
-            // 4 - Upload du fichier consolidé vers S3
-            PutObjectRequest putReq = PutObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(consolidatedKey)
+    // Applique un lot de résumés : une réécriture par shard touché, une notification SNS,
+    // puis suppression des messages (uniquement une fois le lot entièrement commité).
+    private void processBatch(String bucket, List<PendingSummary> batch)
+            throws IOException, CsvValidationException {
+
+        // 1 - Fusionner le lot dans chaque shard touché (écriture conditionnelle, voir commitShard),
+        //     en comparant au passage chaque paire à ses stats courantes (détection d'anomalies)
+        System.out.println("Consolidation en cours (" + batch.size() + " résumé(s))...");
+        AnomalyDetector anomalies = new AnomalyDetector();
+        for (int shard = 0; shard < CONSOLIDATED_SHARDS; shard++) {
+            final int s = shard;
+            if (batch.stream().anyMatch(p -> !p.shardMaps.get(s).isEmpty())) {
+                commitShard(bucket, shard, batch, anomalies);
+            }
+        }
+
+        // 1bis - Mettre à jour les partitions de rollups touchées par le lot (même protocole)
+        Set<String> rollupKeys = new TreeSet<>();
+        for (PendingSummary pending : batch) {
+            rollupKeys.addAll(pending.rollups.keySet());
+        }
+        for (String rollupKey : rollupKeys) {
+            commitRollup(bucket, rollupKey, batch);
+        }
+
+        // 1ter - Fusionner les sketches (top-K, fan-out) du lot, shard par shard
+        for (int shard = 0; shard < CONSOLIDATED_SHARDS; shard++) {
+            final int s = shard;
+            if (batch.stream().anyMatch(p -> p.sketches != null && p.sketchShard == s)) {
+                commitSketches(bucket, shard, batch);
+            }
+        }
+
+        // 2 - Marquer les résumés comme appliqués (avant notification et acquittement)
+        for (PendingSummary pending : batch) {
+            ledger.markProcessed(bucket, pending.summaryKey, pending.etag);
+        }
+
+        // 3 - Publier une alerte SNS (une seule par lot) uniquement si des paires sont anormales
+        if (anomalies.isEmpty()) {
+            System.out.println("Aucune anomalie détectée dans le lot.");
+        } else if (ALERT_TOPIC_ARN != null && !ALERT_TOPIC_ARN.startsWith("REPLACE_ME")) {
+            PublishRequest pubReq = PublishRequest.builder()
+                    .topicArn(ALERT_TOPIC_ARN)
+                    .message(anomalyMessage(bucket, anomalies))
+                    .subject("IoT Anomalies : " + anomalies.size() + " paire(s)")
                     .build();
-            s3.putObject(putReq, finalConsolidated);
-            System.out.println("consolidated.csv uploadé : " + bucket + "/" + consolidatedKey);
 
-            // 4bis - Publier une alerte SNS
-            if (ALERT_TOPIC_ARN != null && !ALERT_TOPIC_ARN.startsWith("REPLACE_ME")) {
-                String message = "Nouveau fichier consolidé généré pour le bucket " + bucket +
-                        " et le résumé " + summaryKey;
+            sns.publish(pubReq);
+            System.out.println("Alerte SNS envoyée (" + anomalies.size() + " anomalie(s)) sur le topic : "
+                    + ALERT_TOPIC_ARN);
+        } else {
+            System.out.println("ALERT_TOPIC_ARN non configuré, SNS non utilisé ("
+                    + anomalies.size() + " anomalie(s)) :");
+            System.out.println(anomalyMessage(bucket, anomalies));
+        }
 
-                PublishRequest pubReq = PublishRequest.builder()
-                        .topicArn(ALERT_TOPIC_ARN)
-                        .message(message)
-                        .subject("IoT Consolidation Done")
-                        .build();
+        // 4 - Supprimer les messages SQS du lot
+        List<Message> messages = new ArrayList<>();
+        for (PendingSummary pending : batch) {
+            messages.add(pending.message);
+        }
+        deleteMessages(messages);
+        System.out.println("Lot consolidé → " + messages.size() + " message(s) SQS supprimé(s).");
 
-                sns.publish(pubReq);
-                System.out.println("Notification SNS envoyée sur le topic : " + ALERT_TOPIC_ARN);
-            } else {
-                System.out.println("ALERT_TOPIC_ARN non configuré, SNS non utilisé.");
+        long rows = 0;
+        for (PendingSummary pending : batch) {
+            for (Map<String, ConsolidatorWorker.Stats> shardMap : pending.shardMaps) {
+                rows += shardMap.size();
             }
+        }
+        loadReporter.recordCompleted(messages.size(), rows);
+    }
+
+    // Fusionne les stats d'un lot de résumés dans un shard de l'état consolidé.
+    // Écriture optimiste : PUT conditionnel (If-Match sur l'ETag lu, If-None-Match si le shard
+    // n'existe pas encore). Si un autre consolidateur a écrit entre-temps, S3 renvoie 412/409 :
+    // on relit le shard et on refait la fusion.
+    // La métadonnée applied-summary, écrite dans le même PUT, liste les résumés appliqués que le ledger
+    // n'a pas encore confirmés (voir appliedValue) : une redélivrance ne les réapplique pas.
+    private void commitShard(String bucket, int shard, List<PendingSummary> batch, AnomalyDetector anomalies)
+            throws IOException, CsvValidationException {
+
+        String consolidatedKey = consolidatedKey(shard);
+        Path tempConsolidated = Files.createTempFile("consolidated-", ".csv");
+        // Mode merge-join : sortie distincte de l'état lu (état non trié : fusion en mémoire, voir plus bas)
+        boolean mergeJoin = MERGE_JOIN;
+        Path tempMerged = null;
+        boolean offHeap = OFFHEAP_DIR != null && !oversizedShards.contains(offHeapFile(bucket, consolidatedKey));
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                // État du shard : Map en mémoire, ou table off-heap si le cache local est activé
+                Map<String, ConsolidatorWorker.Stats> merged = new HashMap<>();
+                OffHeapPairTable table = null;
+                String currentEtag = null;
+                String currentApplied = null;
 
-            // 5 - Supprimer message SQS
-            deleteMessage(msg);
-            System.out.println("Résumé consolidé → message SQS supprimé.");
+                OffHeapPairTable cached = offHeap ? checkoutOffHeapTable(bucket, consolidatedKey) : null;
+                try {
+                    GetObjectRequest.Builder getOld = GetObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(consolidatedKey);
+                    // Table locale identique à l'objet S3 : réponse 304, ni téléchargement ni parsing
+                    if (cached != null && cached.etag() != null) {
+                        getOld.ifNoneMatch(cached.etag());
+                    }
+                    Files.deleteIfExists(tempConsolidated);
+                    GetObjectResponse oldResp = s3.getObject(getOld.build(), ResponseTransformer.toFile(tempConsolidated));
 
+                    currentEtag = oldResp.eTag();
+                    currentApplied = oldResp.metadata().get(APPLIED_SUMMARY_METADATA);
+                    if (offHeap) {
+                        table = OffHeapPairTable.allocate(0);
+                        try {
+                            ConsolidatorWorker.readConsolidated(tempConsolidated.toString(), table::add);
+                        } catch (OffHeapPairTable.TableLimitException e) {
+                            offHeapFallback(bucket, consolidatedKey, e.getMessage(), e.isFull());
+                            table = null;
+                            ConsolidatorWorker.loadConsolidated(tempConsolidated.toString(), merged);
+                        }
+                    } else if (!mergeJoin) {
+                        ConsolidatorWorker.loadConsolidated(tempConsolidated.toString(), merged);
+                    }
+                } catch (NoSuchKeyException e) {
+                    System.out.println("Pas de " + consolidatedKey + " existant. Création d'un nouveau.");
+                    if (offHeap) {
+                        table = OffHeapPairTable.allocate(0);
+                    }
+                } catch (S3Exception e) {
+                    if (cached == null || e.statusCode() != 304) {
+                        throw e;
+                    }
+                    System.out.println("Table off-heap locale à jour pour " + consolidatedKey
+                            + " (" + cached.size() + " paires)");
+                    table = cached;
+                    currentEtag = cached.etag();
+                    currentApplied = cached.appliedValue();
+                }
+
+                // Crash entre l'upload du shard et l'écriture des marqueurs :
+                // ces résumés sont déjà dans ce shard, on ne les réapplique pas.
+                Set<String> alreadyApplied = appliedSummaries(bucket, currentApplied);
+
+                // Lot hors des limites de la table (place, mémoire d'agrandissement, format des IP) :
+                // état recopié dans la Map. Sinon la table est agrandie ici en une fois, pas pendant la fusion.
+                if (table != null) {
+                    long additional = 0;
+                    String unstorable = null;
+                    for (PendingSummary pending : batch) {
+                        if (!alreadyApplied.contains(pending.id)) {
+                            additional += pending.shardMaps.get(shard).size();
+                            unstorable = (unstorable != null) ? unstorable : unstorableKey(pending.shardMaps.get(shard));
+                        }
+                    }
+                    String reason = (unstorable != null) ? "IP hors format pour la table off-heap : " + unstorable : null;
+                    boolean full = false;
+                    if (reason == null) {
+                        try {
+                            table.reserve(additional);
+                        } catch (OffHeapPairTable.TableLimitException e) {
+                            reason = e.getMessage();
+                            full = true;
+                        }
+                    }
+                    if (reason != null) {
+                        offHeapFallback(bucket, consolidatedKey, reason, full);
+                        table.forEach((srcIp, dstIp, s) -> merged.put(srcIp + "|" + dstIp, s));
+                        table = null;
+                    }
+                }
+
+                // Anomalies de cette tentative (retenues seulement si le commit réussit)
+                AnomalyDetector attemptAnomalies = new AnomalyDetector();
+                boolean changed = false;
+                List<PendingSummary> toMerge = new ArrayList<>();
+                List<String> appliedIds = new ArrayList<>();
+                for (PendingSummary pending : batch) {
+                    if (alreadyApplied.contains(pending.id)) {
+                        System.out.println("Résumé déjà présent dans " + consolidatedKey + " : " + pending.id);
+                        continue;
+                    }
+                    if (!pending.shardMaps.get(shard).isEmpty()) {
+                        appliedIds.add(pending.id);
+                    }
+                    if (mergeJoin) {
+                        if (!pending.shardMaps.get(shard).isEmpty()) {
+                            toMerge.add(pending);
+                            changed = true;
+                        }
+                        continue;
+                    }
+                    if (table == null) {
+                        mergeInto(merged, pending, shard, attemptAnomalies);
+                    } else {
+                        for (Map.Entry<String, ConsolidatorWorker.Stats> entry : pending.shardMaps.get(shard).entrySet()) {
+                            String[] parts = entry.getKey().split("\\|", 2);
+                            attemptAnomalies.check(entry.getKey(), table.get(parts[0], parts[1]),
+                                    entry.getValue(), pending.summaryKey);
+                            table.add(parts[0], parts[1], entry.getValue());
+                        }
+                    }
+                    changed |= !pending.shardMaps.get(shard).isEmpty();
+                }
+                if (!changed) {
+                    if (table != null) {
+                        saveOffHeapTable(bucket, consolidatedKey, table, currentEtag, currentApplied);
+                    }
+                    return;
+                }
+                Path upload = tempConsolidated;
+                if (mergeJoin) {
+                    if (tempMerged == null) {
+                        tempMerged = Files.createTempFile("consolidated-merged-", ".csv");
+                    }
+                    AnomalyDetector mergeAnomalies = new AnomalyDetector();
+                    try {
+                        mergeShard(currentEtag != null ? tempConsolidated : null, toMerge, shard, tempMerged,
+                                mergeAnomalies);
+                        attemptAnomalies.addAll(mergeAnomalies);
+                        upload = tempMerged;
+                    } catch (MergeJoinConsolidator.UnsortedInputException e) {
+                        // État écrit avant le tri des fichiers consolidés : fusion en mémoire dans cette même
+                        // tentative (même ETag lu), l'état est réécrit trié pour les commits suivants
+                        System.out.println("Fusion triée impossible (" + e.getMessage()
+                                + "), fusion en mémoire pour ce commit.");
+                        ConsolidatorWorker.loadConsolidated(tempConsolidated.toString(), merged);
+                        for (PendingSummary pending : toMerge) {
+                            mergeInto(merged, pending, shard, attemptAnomalies);
+                        }
+                        ConsolidatorWorker.writeConsolidated(merged, tempConsolidated.toString());
+                    }
+                } else if (table != null) {
+                    ConsolidatorWorker.writeConsolidated(table, tempConsolidated.toString());
+                } else {
+                    ConsolidatorWorker.writeConsolidated(merged, tempConsolidated.toString());
+                }
+
+                String appliedValue = appliedValue(bucket, alreadyApplied, appliedIds);
+                PutObjectRequest.Builder putReq = PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(consolidatedKey)
+                        .metadata(Map.of(APPLIED_SUMMARY_METADATA, appliedValue));
+                if (currentEtag != null) {
+                    putReq.ifMatch(currentEtag);
+                } else {
+                    putReq.ifNoneMatch("*");
+                }
+
+                try {
+                    PutObjectResponse putResp = s3.putObject(putReq.build(), upload);
+                    System.out.println("Shard consolidé uploadé : " + bucket + "/" + consolidatedKey);
+                    retireManifest(bucket, currentApplied, alreadyApplied);
+                    anomalies.addAll(attemptAnomalies);
+                    if (table != null) {
+                        saveOffHeapTable(bucket, consolidatedKey, table, putResp.eTag(), appliedValue);
+                    }
+                    return;
+                } catch (S3Exception e) {
+                    discardManifest(bucket, appliedValue);
+                    if (!isWriteConflict(e) || attempt >= MAX_COMMIT_ATTEMPTS) {
+                        throw e;
+                    }
+                    System.out.println("Conflit d'écriture sur " + consolidatedKey
+                            + " (tentative " + attempt + "), nouvelle fusion...");
+                    backoff(attempt);
+                }
+            }
         } finally {
-            Files.deleteIfExists(tempSummary);
             Files.deleteIfExists(tempConsolidated);
+            if (tempMerged != null) {
+                Files.deleteIfExists(tempMerged);
+            }
+        }
+    }
+
+    // Ajoute l'apport d'un résumé au shard en mémoire ; chaque apport est comparé aux stats de la paire
+    // avant fusion
+    private static void mergeInto(Map<String, ConsolidatorWorker.Stats> merged, PendingSummary pending, int shard,
+                                  AnomalyDetector anomalies) {
+        for (Map.Entry<String, ConsolidatorWorker.Stats> entry : pending.shardMaps.get(shard).entrySet()) {
+            ConsolidatorWorker.Stats stats = merged.get(entry.getKey());
+            anomalies.check(entry.getKey(), stats, entry.getValue(), pending.summaryKey);
+            if (stats == null) {
+                stats = new ConsolidatorWorker.Stats();
+                merged.put(entry.getKey(), stats);
+            }
+            stats.add(entry.getValue());
+        }
+    }
+
+    // Mode merge-join : état du shard (fichier trié, null si absent) et deltas du lot, triés en mémoire,
+    // fusionnés en un passage vers output. Chaque apport est comparé aux stats de la paire avant fusion.
+    private static void mergeShard(Path state, List<PendingSummary> toMerge, int shard, Path output,
+                                   AnomalyDetector anomalies) throws IOException {
+        List<MergeJoinConsolidator.PairCursor> deltas = new ArrayList<>();
+        for (PendingSummary pending : toMerge) {
+            deltas.add(MergeJoinConsolidator.mapCursor(pending.shardMaps.get(shard)));
+        }
+
+        long start = System.currentTimeMillis();
+        try (MergeJoinConsolidator.PairCursor stateCursor =
+                     (state == null) ? null : MergeJoinConsolidator.consolidatedCursor(state.toString())) {
+            long pairs = MergeJoinConsolidator.merge(stateCursor, deltas, output.toString(),
+                    (delta, srcIp, dstIp, before, contribution) -> anomalies.check(srcIp + "|" + dstIp,
+                            before, contribution, toMerge.get(delta).summaryKey));
+            System.out.println("Fusion triée : " + pairs + " paires écrites en "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    // Fusionne les sketches d'un lot dans ceux d'un shard, avec le même protocole que commitShard
+    // (PUT conditionnel + métadonnée applied-summary), puis régénère les vues CSV interrogeables
+    // par l'ExportClient (topk / fanout). Les vues sont dérivées : un PUT simple suffit.
+    private void commitSketches(String bucket, int shard, List<PendingSummary> batch)
+            throws IOException {
+
+        String sketchKey = sketchKey(shard);
+        Path tempSketch = Files.createTempFile("sketch-", ".bin");
+        Path tempView = Files.createTempFile("sketch-view-", ".csv");
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                TrafficSketches merged = null;
+                String currentEtag = null;
+                String currentApplied = null;
+
+                try {
+                    Files.deleteIfExists(tempSketch);
+                    GetObjectResponse oldResp = s3.getObject(GetObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(sketchKey)
+                            .build(), ResponseTransformer.toFile(tempSketch));
+                    currentEtag = oldResp.eTag();
+                    currentApplied = oldResp.metadata().get(APPLIED_SUMMARY_METADATA);
+                    merged = TrafficSketches.readFrom(tempSketch);
+                } catch (NoSuchKeyException e) {
+                    System.out.println("Pas de " + sketchKey + " existant. Création d'un nouveau.");
+                }
+
+                Set<String> alreadyApplied = appliedSummaries(bucket, currentApplied);
+
+                List<String> appliedIds = new ArrayList<>();
+                for (PendingSummary pending : batch) {
+                    if (pending.sketches == null || pending.sketchShard != shard
+                            || alreadyApplied.contains(pending.id)) {
+                        continue;
+                    }
+                    // Fusion dans une copie : les sketches du lot restent intacts pour une nouvelle tentative
+                    if (merged == null) {
+                        merged = TrafficSketches.emptyLike(pending.sketches);
+                    }
+                    merged.merge(pending.sketches);
+                    appliedIds.add(pending.id);
+                }
+                if (appliedIds.isEmpty()) {
+                    return;
+                }
+
+                merged.writeTo(tempSketch);
+                String appliedValue = appliedValue(bucket, alreadyApplied, appliedIds);
+                PutObjectRequest.Builder putReq = PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(sketchKey)
+                        .metadata(Map.of(APPLIED_SUMMARY_METADATA, appliedValue));
+                if (currentEtag != null) {
+                    putReq.ifMatch(currentEtag);
+                } else {
+                    putReq.ifNoneMatch("*");
+                }
+
+                try {
+                    s3.putObject(putReq.build(), tempSketch);
+                    retireManifest(bucket, currentApplied, alreadyApplied);
+                } catch (S3Exception e) {
+                    discardManifest(bucket, appliedValue);
+                    if (!isWriteConflict(e) || attempt >= MAX_COMMIT_ATTEMPTS) {
+                        throw e;
+                    }
+                    System.out.println("Conflit d'écriture sur " + sketchKey
+                            + " (tentative " + attempt + "), nouvelle fusion...");
+                    backoff(attempt);
+                    continue;
+                }
+
+                ConsolidatorWorker.writeTopK(merged, SKETCH_TOP_K, tempView.toString());
+                s3.putObject(PutObjectRequest.builder().bucket(bucket).key(sketchViewKey("topk", shard)).build(),
+                        tempView);
+                ConsolidatorWorker.writeFanout(merged, tempView.toString());
+                s3.putObject(PutObjectRequest.builder().bucket(bucket).key(sketchViewKey("fanout", shard)).build(),
+                        tempView);
+                System.out.println("Sketches consolidés uploadés : " + bucket + "/" + sketchKey);
+                return;
+            }
+        } finally {
+            Files.deleteIfExists(tempSketch);
+            Files.deleteIfExists(tempView);
+        }
+    }
+
+    // Répartit les lignes du résumé par partition de rollup : jour de la ligne, et semaine
+    // (lundi) de ce jour. Les dates illisibles restent dans l'état consolidé mais sans rollup.
+    private static void addRollupDeltas(PendingSummary pending,
+                                        List<Map<String, Map<String, ConsolidatorWorker.Stats>>> dateMaps) {
+        for (int shard = 0; shard < dateMaps.size(); shard++) {
+            for (Map.Entry<String, Map<String, ConsolidatorWorker.Stats>> byDate : dateMaps.get(shard).entrySet()) {
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(byDate.getKey());
+                } catch (DateTimeParseException e) {
+                    System.err.println("Date illisible, pas de rollup : '" + byDate.getKey() + "'");
+                    continue;
+                }
+
+                if (ROLLUPS.contains("daily")) {
+                    mergeInto(pending.rollups.computeIfAbsent(
+                            rollupKey("daily", "date=" + date, shard), k -> new HashMap<>()), byDate.getValue());
+                }
+                if (ROLLUPS.contains("weekly")) {
+                    mergeInto(pending.rollups.computeIfAbsent(
+                            rollupKey("weekly", "week=" + date.with(DayOfWeek.MONDAY), shard), k -> new HashMap<>()),
+                            byDate.getValue());
+                }
+            }
+        }
+    }
+
+    private static void mergeInto(Map<String, ConsolidatorWorker.Stats> target,
+                                  Map<String, ConsolidatorWorker.Stats> delta) {
+        for (Map.Entry<String, ConsolidatorWorker.Stats> entry : delta.entrySet()) {
+            target.computeIfAbsent(entry.getKey(), k -> new ConsolidatorWorker.Stats()).add(entry.getValue());
+        }
+    }
+
+    // Fusionne un lot dans une partition de rollup (même format que consolidated.csv), avec le même
+    // protocole que commitShard : PUT conditionnel + métadonnée applied-summary (idempotent).
+    private void commitRollup(String bucket, String rollupKey, List<PendingSummary> batch)
+            throws IOException, CsvValidationException {
+
+        Path tempRollup = Files.createTempFile("rollup-", ".csv");
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Map<String, ConsolidatorWorker.Stats> merged = new HashMap<>();
+                String currentEtag = null;
+                String currentApplied = null;
+
+                try {
+                    Files.deleteIfExists(tempRollup);
+                    GetObjectResponse oldResp = s3.getObject(GetObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(rollupKey)
+                            .build(), ResponseTransformer.toFile(tempRollup));
+                    currentEtag = oldResp.eTag();
+                    currentApplied = oldResp.metadata().get(APPLIED_SUMMARY_METADATA);
+                    ConsolidatorWorker.loadConsolidated(tempRollup.toString(), merged);
+                } catch (NoSuchKeyException e) {
+                    // Nouvelle partition
+                }
+
+                Set<String> alreadyApplied = appliedSummaries(bucket, currentApplied);
+
+                List<String> appliedIds = new ArrayList<>();
+                for (PendingSummary pending : batch) {
+                    Map<String, ConsolidatorWorker.Stats> delta = pending.rollups.get(rollupKey);
+                    if (delta == null || alreadyApplied.contains(pending.id)) {
+                        continue;
+                    }
+                    mergeInto(merged, delta);
+                    appliedIds.add(pending.id);
+                }
+                if (appliedIds.isEmpty()) {
+                    return;
+                }
+                ConsolidatorWorker.writeConsolidated(merged, tempRollup.toString());
+                String appliedValue = appliedValue(bucket, alreadyApplied, appliedIds);
+
+                PutObjectRequest.Builder putReq = PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(rollupKey)
+                        .metadata(Map.of(APPLIED_SUMMARY_METADATA, appliedValue));
+                if (currentEtag != null) {
+                    putReq.ifMatch(currentEtag);
+                } else {
+                    putReq.ifNoneMatch("*");
+                }
+
+                try {
+                    s3.putObject(putReq.build(), tempRollup);
+                    System.out.println("Rollup uploadé : " + bucket + "/" + rollupKey);
+                    retireManifest(bucket, currentApplied, alreadyApplied);
+                    return;
+                } catch (S3Exception e) {
+                    discardManifest(bucket, appliedValue);
+                    if (!isWriteConflict(e) || attempt >= MAX_COMMIT_ATTEMPTS) {
+                        throw e;
+                    }
+                    System.out.println("Conflit d'écriture sur " + rollupKey
+                            + " (tentative " + attempt + "), nouvelle fusion...");
+                    backoff(attempt);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tempRollup);
+        }
+    }
+
+    // Corps de l'alerte SNS : les ANOMALY_MAX_REPORTED paires les plus anormales (SNS : 256 Ko max)
+    private static String anomalyMessage(String bucket, AnomalyDetector anomalies) {
+        List<AnomalyDetector.Anomaly> list = anomalies.anomalies();
+        StringBuilder message = new StringBuilder("Trafic anormal détecté pour le bucket ")
+                .append(bucket).append(" (").append(list.size()).append(" paire(s)) :");
+        for (AnomalyDetector.Anomaly a : list.subList(0, Math.min(ANOMALY_MAX_REPORTED, list.size()))) {
+            message.append("\n- ").append(a);
+        }
+        if (list.size() > ANOMALY_MAX_REPORTED) {
+            message.append("\n... et ").append(list.size() - ANOMALY_MAX_REPORTED).append(" autre(s).");
+        }
+        return message.toString();
+    }
+
+    // Première paire "SrcIP|DstIP" dont une IP n'est pas stockable dans la table off-heap (null si aucune)
+    private static String unstorableKey(Map<String, ConsolidatorWorker.Stats> delta) {
+        for (String key : delta.keySet()) {
+            int separator = key.indexOf('|');
+            if (!OffHeapPairTable.isStorableIp(key.substring(0, separator))
+                    || !OffHeapPairTable.isStorableIp(key.substring(separator + 1))) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    // Abandon de la table pour ce commit : l'état est fusionné dans une Map. Table pleine : le shard
+    // reste en Map pour la suite (évite de recharger la table à chaque commit pour rien).
+    private void offHeapFallback(String bucket, String consolidatedKey, String reason, boolean full) {
+        System.out.println("Fusion en mémoire pour " + consolidatedKey + " : " + reason);
+        if (full) {
+            oversizedShards.add(offHeapFile(bucket, consolidatedKey));
+        }
+    }
+
+    // Table off-heap locale d'un shard (en mémoire, sinon rechargée par mmap), ou null.
+    // Elle est retirée du cache le temps du commit : une table modifiée mais non commitée
+    // (conflit, erreur) n'est jamais réutilisée, et deux lots concurrents ne partagent jamais une table.
+    private synchronized OffHeapPairTable checkoutOffHeapTable(String bucket, String consolidatedKey) {
+        if (OFFHEAP_DIR == null) {
+            return null;
+        }
+
+        Path file = offHeapFile(bucket, consolidatedKey);
+        OffHeapPairTable table = offHeapTables.remove(file);
+        try {
+            if (table == null && Files.exists(file)) {
+                table = OffHeapPairTable.load(file);
+                System.out.println("Table off-heap rechargée (mmap) : " + file + " (" + table.size() + " paires)");
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Table off-heap illisible, ignorée : " + file + " (" + e.getMessage() + ")");
+            return null;
+        }
+        return table;
+    }
+
+    // Enregistre la table d'un shard commité, avec l'ETag de l'objet S3 qu'elle reflète
+    private synchronized void saveOffHeapTable(String bucket, String consolidatedKey, OffHeapPairTable table,
+                                  String etag, String applied) {
+        Path file = offHeapFile(bucket, consolidatedKey);
+        try {
+            table.setSource(etag, applied);
+            Files.createDirectories(OFFHEAP_DIR);
+            table.saveTo(file);
+            offHeapTables.put(file, table);
+        } catch (IOException | IllegalArgumentException e) {
+            // Le commit S3 est fait : on perd seulement le démarrage à chaud de ce shard
+            System.err.println("Table off-heap non sauvegardée : " + file + " (" + e.getMessage() + ")");
+        }
+    }
+
+    private static Path offHeapFile(String bucket, String consolidatedKey) {
+        return OFFHEAP_DIR.resolve(bucket + "_" + consolidatedKey.replace('/', '_') + ".bin");
+    }
+
+    // Résumés couverts par la métadonnée d'un objet d'état : un seul id, ou un manifeste
+    private Set<String> appliedSummaries(String bucket, String appliedValue) {
+        if (appliedValue == null) {
+            return Set.of();
+        }
+        if (!isManifest(appliedValue)) {
+            return Set.of(appliedValue);
+        }
+        try {
+            String manifest = s3.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(batchManifestKey(appliedValue))
+                    .build()).asUtf8String();
+            return new HashSet<>(Arrays.asList(manifest.split("\n")));
+        } catch (NoSuchKeyException e) {
+            return Set.of();
+        }
+    }
+
+    // Métadonnée du prochain PUT : résumés appliqués par ce commit, plus ceux déjà présents que le
+    // ledger n'a pas encore confirmés. Un id n'est retiré qu'une fois son marqueur écrit : jusque-là,
+    // un crash avant markProcessed suivi d'un autre commit ne peut plus effacer la trace d'un résumé
+    // appliqué, et sa redélivrance n'est pas comptée deux fois. Plusieurs ids : manifeste S3, écrit
+    // avant le PUT conditionnel qui le référence.
+    private String appliedValue(String bucket, Set<String> alreadyApplied, List<String> appliedIds) {
+        Set<String> pending = new TreeSet<>(appliedIds);
+        for (String id : alreadyApplied) {
+            int at = id.lastIndexOf('@');
+            if (at <= 0 || !ledger.isProcessed(bucket, id.substring(0, at), id.substring(at + 1))) {
+                pending.add(id);
+            }
+        }
+        if (pending.size() == 1) {
+            return pending.iterator().next();
+        }
+
+        String manifestId = PENDING_ID_PREFIX + UUID.randomUUID();
+        s3.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(batchManifestKey(manifestId))
+                        .build(),
+                RequestBody.fromString(String.join("\n", pending) + "\n"));
+        return manifestId;
+    }
+
+    // Manifeste d'un PUT refusé : plus référencé par aucun objet d'état.
+    // Nettoyage au mieux : un échec laisse un manifeste orphelin (règle de cycle de vie), sans effet sur le commit.
+    private void discardManifest(String bucket, String appliedValue) {
+        if (!isManifest(appliedValue)) {
+            return;
+        }
+        try {
+            s3.deleteObject(DeleteObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(batchManifestKey(appliedValue))
+                    .build());
+        } catch (S3Exception e) {
+            System.err.println("Manifeste non supprimé : " + appliedValue + " (" + e.getMessage() + ")");
+        }
+    }
+
+    // Manifeste remplacé par un commit réussi. Un manifeste propre à l'objet n'est plus référencé
+    // (ses résumés non confirmés sont repris dans la nouvelle métadonnée) : supprimé. Un ancien
+    // manifeste de lot, partagé, ne l'est qu'une fois tous ses résumés confirmés par le ledger ;
+    // sinon la règle de cycle de vie de ledger/consolidate-batches/ l'expire.
+    private void retireManifest(String bucket, String previousApplied, Set<String> previousIds) {
+        if (previousApplied == null || !isManifest(previousApplied)) {
+            return;
+        }
+        if (previousApplied.startsWith(PENDING_ID_PREFIX)) {
+            discardManifest(bucket, previousApplied);
+            return;
+        }
+        try {
+            for (String id : previousIds) {
+                int at = id.lastIndexOf('@');
+                if (at <= 0 || !ledger.isProcessed(bucket, id.substring(0, at), id.substring(at + 1))) {
+                    return;
+                }
+            }
+        } catch (S3Exception e) {
+            return;
+        }
+        discardManifest(bucket, previousApplied);
+    }
+
+    private static boolean isManifest(String appliedValue) {
+        return appliedValue.startsWith(PENDING_ID_PREFIX) || appliedValue.startsWith(BATCH_ID_PREFIX);
+    }
+
+    private static String batchManifestKey(String batchId) {
+        return "ledger/consolidate-batches/" + batchId;
+    }
+
+    // 1 shard : fichier historique ; N shards : consolidated/shards-N/shard-XXXX.csv
+    private static String consolidatedKey(int shard) {
+        if (CONSOLIDATED_SHARDS == 1) {
+            return "consolidated/consolidated.csv";
+        }
+        return String.format("consolidated/shards-%d/shard-%04d.csv", CONSOLIDATED_SHARDS, shard);
+    }
+
+    // rollups/<granularité>/<partition>/rollup.csv, ou .../<partition>/shards-N/shard-XXXX.csv :
+    // un consolidateur par shard => pas de conflit entre shards sur une même partition
+    private static String rollupKey(String granularity, String partition, int shard) {
+        String prefix = "rollups/" + granularity + "/" + partition + "/";
+        if (CONSOLIDATED_SHARDS == 1) {
+            return prefix + "rollup.csv";
+        }
+        return prefix + String.format("shards-%d/shard-%04d.csv", CONSOLIDATED_SHARDS, shard);
+    }
+
+    // 1 shard : consolidated/sketches.bin ; N shards : consolidated/shards-N/sketch-XXXX.bin
+    private static String sketchKey(int shard) {
+        if (CONSOLIDATED_SHARDS == 1) {
+            return "consolidated/sketches.bin";
+        }
+        return String.format("consolidated/shards-%d/sketch-%04d.bin", CONSOLIDATED_SHARDS, shard);
+    }
+
+    // Vues CSV des sketches : consolidated/topk.csv, ou consolidated/shards-N/topk-XXXX.csv (idem fanout)
+    private static String sketchViewKey(String view, int shard) {
+        if (CONSOLIDATED_SHARDS == 1) {
+            return "consolidated/" + view + ".csv";
+        }
+        return String.format("consolidated/shards-%d/%s-%04d.csv", CONSOLIDATED_SHARDS, view, shard);
+    }
+
+    // 412 Precondition Failed (ETag changé) ou 409 (écriture concurrente en cours)
+    private static boolean isWriteConflict(S3Exception e) {
+        return e.statusCode() == 412 || e.statusCode() == 409;
+    }
+
+    // Attente exponentielle avec jitter avant de retenter la fusion
+    private static void backoff(int attempt) throws IOException {
+        long maxDelay = Math.min(5000L, 100L << Math.min(attempt, 10));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompu pendant l'attente avant nouvelle tentative", e);
         }
     }
 
@@ -174,6 +1084,48 @@ public class ConsolidatorWorkerAws {
                 .build());
     }
 
+    // Suppression groupée (10 messages max par appel SQS)
+    private void deleteMessages(List<Message> messages) {
+        for (int from = 0; from < messages.size(); from += 10) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (Message m : messages.subList(from, Math.min(from + 10, messages.size()))) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(entries.size()))
+                        .receiptHandle(m.receiptHandle())
+                        .build());
+            }
+
+            DeleteMessageBatchResponse resp = sqs.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(CONSOLIDATE_QUEUE_URL)
+                    .entries(entries)
+                    .build());
+            for (BatchResultErrorEntry failed : resp.failed()) {
+                System.err.println("Suppression SQS échouée (" + failed.code() + ") : " + failed.message());
+            }
+        }
+    }
+
+    // Résumé téléchargé, en attente d'application dans le lot courant
+    private static class PendingSummary {
+        final Message message;
+        final String summaryKey;
+        final String etag;
+        final String id;
+        final List<Map<String, ConsolidatorWorker.Stats>> shardMaps = new ArrayList<>();
+        // Apport du résumé à chaque partition de rollup touchée (clé S3 -> paire -> stats)
+        final Map<String, Map<String, ConsolidatorWorker.Stats>> rollups = new HashMap<>();
+        // Sketches du résumé et shard consolidé qu'ils couvrent (null si absents)
+        TrafficSketches sketches;
+        int sketchShard = -1;
+
+        PendingSummary(Message message, String summaryKey, String etag) {
+            this.message = message;
+            this.summaryKey = summaryKey;
+            this.etag = etag;
+            this.id = summaryKey + "@" + etag;
+        }
+    }
+
     private static String extractJson(String json, String fieldName) {
         String pattern = "\"" + fieldName + "\"";
         int idx = json.indexOf(pattern);
@@ -0,0 +1,332 @@
+package com.iot.project;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Consolidation par fusion (merge-join) d'entrées triées par (SrcIP, DstIP) : l'état consolidé
+// précédent et les résumés (ou les deltas d'un lot) sont lus en un seul passage séquentiel (k-way merge)
+// et chaque paire est écrite dès que toutes ses lignes ont été vues.
+// Mémoire : une ligne courante par entrée, quelle que soit la taille de l'état — contre une entrée
+// de HashMap par paire pour ConsolidatorWorker.consolidate.
+// Les entrées doivent suivre l'ordre des écritures triées (SummaryWriter, writeConsolidated) ;
+// un fichier écrit avant le tri est détecté à la première ligne hors ordre (UnsortedInputException).
+public class MergeJoinConsolidator {
+
+    // Entrée hors ordre : à consolider une fois en mémoire (ConsolidatorWorker), qui réécrit trié
+    public static class UnsortedInputException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnsortedInputException(String message) {
+            super(message);
+        }
+    }
+
+    // Lignes triées par (SrcIP, DstIP) ; une paire peut occuper plusieurs lignes consécutives
+    // (une par date dans un résumé)
+    public interface PairCursor extends Closeable {
+        // Passe à la ligne suivante ; false en fin de flux
+        boolean next() throws IOException;
+
+        String srcIp();
+
+        String dstIp();
+
+        // Stats de la ligne courante
+        ConsolidatorWorker.Stats stats();
+    }
+
+    // Apport du delta n° delta à une paire ; before = stats de la paire avant cet apport (null si nouvelle)
+    public interface DeltaVisitor {
+        void visit(int delta, String srcIp, String dstIp,
+                   ConsolidatorWorker.Stats before, ConsolidatorWorker.Stats contribution);
+    }
+
+    // previousConsolidatedCsv : null si aucun état précédent. Renvoie le nombre de paires écrites.
+    public static long consolidate(String previousConsolidatedCsv, List<String> summaryCsvs, String outputCsv)
+            throws IOException {
+        List<PairCursor> deltas = new ArrayList<>();
+        PairCursor state = null;
+        try {
+            if (previousConsolidatedCsv != null) {
+                state = consolidatedCursor(previousConsolidatedCsv);
+            }
+            for (String summaryCsv : summaryCsvs) {
+                deltas.add(summaryCursor(summaryCsv));
+            }
+            return merge(state, deltas, outputCsv, null);
+        } finally {
+            if (state != null) {
+                state.close();
+            }
+            for (PairCursor delta : deltas) {
+                delta.close();
+            }
+        }
+    }
+
+    // Fusionne l'état (null = aucun) et les deltas vers outputCsv (format consolidated.csv, trié).
+    // Pour une même paire : l'état, puis les deltas dans l'ordre de la liste (mêmes additions, dans le
+    // même ordre, que la consolidation en mémoire). visitor (optionnel) reçoit l'apport de chaque delta.
+    public static long merge(PairCursor state, List<PairCursor> deltas, String outputCsv, DeltaVisitor visitor)
+            throws IOException {
+
+        // Têtes de lecture par paire courante ; à paire égale, par rang (-1 = état, puis deltas)
+        PriorityQueue<Head> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = comparePairs(a.cursor.srcIp(), a.cursor.dstIp(), b.cursor.srcIp(), b.cursor.dstIp());
+            return (cmp != 0) ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        if (state != null && state.next()) {
+            heap.add(new Head(state, -1));
+        }
+        for (int i = 0; i < deltas.size(); i++) {
+            if (deltas.get(i).next()) {
+                heap.add(new Head(deltas.get(i), i));
+            }
+        }
+
+        long pairs = 0;
+        try (CsvRowWriter writer = ConsolidatorWorker.openConsolidated(outputCsv)) {
+            while (!heap.isEmpty()) {
+                String srcIp = heap.peek().cursor.srcIp();
+                String dstIp = heap.peek().cursor.dstIp();
+                ConsolidatorWorker.Stats total = new ConsolidatorWorker.Stats();
+
+                while (!heap.isEmpty() && heap.peek().isAt(srcIp, dstIp)) {
+                    Head head = heap.poll();
+                    boolean reported = (visitor != null && head.rank >= 0);
+                    ConsolidatorWorker.Stats before = (reported && total.count > 0) ? copy(total) : null;
+                    ConsolidatorWorker.Stats contribution = reported ? new ConsolidatorWorker.Stats() : null;
+
+                    // Toutes les lignes de la paire dans cette entrée (une par date pour un résumé)
+                    boolean more;
+                    do {
+                        total.add(head.cursor.stats());
+                        if (reported) {
+                            contribution.add(head.cursor.stats());
+                        }
+                        more = head.cursor.next();
+                    } while (more && head.isAt(srcIp, dstIp));
+
+                    if (reported) {
+                        visitor.visit(head.rank, srcIp, dstIp, before, contribution);
+                    }
+                    if (more) {
+                        heap.add(head);
+                    }
+                }
+
+                writer.field(srcIp).field(dstIp);
+                ConsolidatorWorker.writeStats(writer, total);
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    // consolidated.csv trié : une ligne = les stats d'une paire (Count, moyennes, écarts-types)
+    public static PairCursor consolidatedCursor(String consolidatedCsv) throws IOException {
+        return new CsvCursor(consolidatedCsv, false);
+    }
+
+    // Résumé trié : une ligne = une observation de la paire (comme ConsolidatorWorker.accumulateSummary)
+    public static PairCursor summaryCursor(String summaryCsv) throws IOException {
+        return new CsvCursor(summaryCsv, true);
+    }
+
+    // Delta en mémoire (clé "SrcIP|DstIP" -> stats), parcouru dans l'ordre des clés
+    public static PairCursor mapCursor(Map<String, ConsolidatorWorker.Stats> statsByPair) {
+        String[] keys = statsByPair.keySet().toArray(new String[0]);
+        int[] order = KeySorter.sortedOrder(keys);
+        return new PairCursor() {
+            private int position = -1;
+            private String srcIp;
+            private String dstIp;
+            private ConsolidatorWorker.Stats stats;
+
+            @Override
+            public boolean next() {
+                if (++position >= order.length) {
+                    return false;
+                }
+                String key = keys[order[position]];
+                int separator = key.indexOf('|');
+                srcIp = key.substring(0, separator);
+                dstIp = key.substring(separator + 1);
+                stats = statsByPair.get(key);
+                return true;
+            }
+
+            @Override
+            public String srcIp() {
+                return srcIp;
+            }
+
+            @Override
+            public String dstIp() {
+                return dstIp;
+            }
+
+            @Override
+            public ConsolidatorWorker.Stats stats() {
+                return stats;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // Même ordre que KeySorter.KEY_ORDER sur "SrcIP|DstIP"
+    static int comparePairs(String srcA, String dstA, String srcB, String dstB) {
+        int cmp = srcA.compareTo(srcB);
+        return (cmp != 0) ? cmp : dstA.compareTo(dstB);
+    }
+
+    private static ConsolidatorWorker.Stats copy(ConsolidatorWorker.Stats s) {
+        ConsolidatorWorker.Stats copy = new ConsolidatorWorker.Stats();
+        copy.add(s);
+        return copy;
+    }
+
+    private static class Head {
+        final PairCursor cursor;
+        final int rank;
+
+        Head(PairCursor cursor, int rank) {
+            this.cursor = cursor;
+            this.rank = rank;
+        }
+
+        boolean isAt(String srcIp, String dstIp) {
+            return cursor.srcIp().equals(srcIp) && cursor.dstIp().equals(dstIp);
+        }
+    }
+
+    // Lecture d'un CSV trié ligne par ligne (colonnes retrouvées par nom, ordre vérifié au fil de l'eau)
+    private static final class CsvCursor implements PairCursor {
+        private final String path;
+        private final boolean summary;
+        private final CSVReader reader;
+        private int idxSrcIp;
+        private int idxDstIp;
+        // Résumé : TotalFlowDuration, TotalFwdPkt ; consolidé : Count, Mean/Std FlowDuration, Mean/Std FwdPkt
+        private int[] idxValues;
+        private boolean empty;
+
+        private String srcIp;
+        private String dstIp;
+        private ConsolidatorWorker.Stats stats;
+
+        CsvCursor(String path, boolean summary) throws IOException {
+            this.path = path;
+            this.summary = summary;
+            this.reader = new CSVReader(new FileReader(path, StandardCharsets.UTF_8));
+            try {
+                readHeader();
+            } catch (IOException | RuntimeException e) {
+                reader.close();
+                throw e;
+            }
+        }
+
+        private void readHeader() throws IOException {
+            String[] header = readLine();
+            if (header == null) {
+                if (summary) {
+                    throw new IOException("CSV de résumé vide : " + path);
+                }
+                empty = true; // fichier vide = pas d'état précédent
+                return;
+            }
+
+            String[] columns = summary
+                    ? new String[]{"TotalFlowDuration", "TotalFwdPkt"}
+                    : new String[]{"Count", "MeanFlowDuration", "StdFlowDuration", "MeanFwdPkt", "StdFwdPkt"};
+            idxSrcIp = ConsolidatorWorker.findIndex(header, "SrcIP");
+            idxDstIp = ConsolidatorWorker.findIndex(header, "DstIP");
+            idxValues = new int[columns.length];
+            boolean missing = (idxSrcIp == -1 || idxDstIp == -1);
+            for (int i = 0; i < columns.length; i++) {
+                idxValues[i] = ConsolidatorWorker.findIndex(header, columns[i]);
+                missing |= (idxValues[i] == -1);
+            }
+            if (missing) {
+                throw new IOException("Colonnes manquantes dans " + path);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            String[] line = empty ? null : readLine();
+            if (line == null) {
+                return false;
+            }
+
+            String src = line[idxSrcIp];
+            String dst = line[idxDstIp];
+            if (srcIp != null && comparePairs(src, dst, srcIp, dstIp) < 0) {
+                throw new UnsortedInputException(path + " n'est pas trié par (SrcIP, DstIP) : "
+                        + src + " -> " + dst + " après " + srcIp + " -> " + dstIp);
+            }
+            srcIp = src;
+            dstIp = dst;
+
+            if (summary) {
+                double flow = ConsolidatorWorker.parseDoubleSafe(line[idxValues[0]]);
+                double fwd = ConsolidatorWorker.parseDoubleSafe(line[idxValues[1]]);
+                stats = new ConsolidatorWorker.Stats();
+                stats.count = 1;
+                stats.sumFlow = flow;
+                stats.sumFlowSq = flow * flow;
+                stats.sumFwd = fwd;
+                stats.sumFwdSq = fwd * fwd;
+            } else {
+                stats = ConsolidatorWorker.fromMeanStd(
+                        (long) ConsolidatorWorker.parseDoubleSafe(line[idxValues[0]]),
+                        ConsolidatorWorker.parseDoubleSafe(line[idxValues[1]]),
+                        ConsolidatorWorker.parseDoubleSafe(line[idxValues[2]]),
+                        ConsolidatorWorker.parseDoubleSafe(line[idxValues[3]]),
+                        ConsolidatorWorker.parseDoubleSafe(line[idxValues[4]]));
+            }
+            return true;
+        }
+
+        private String[] readLine() throws IOException {
+            try {
+                return reader.readNext();
+            } catch (CsvValidationException e) {
+                throw new IOException("CSV invalide : " + path + " (" + e.getMessage() + ")", e);
+            }
+        }
+
+        @Override
+        public String srcIp() {
+            return srcIp;
+        }
+
+        @Override
+        public String dstIp() {
+            return dstIp;
+        }
+
+        @Override
+        public ConsolidatorWorker.Stats stats() {
+            return stats;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
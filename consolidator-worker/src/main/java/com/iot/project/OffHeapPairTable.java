@@ -0,0 +1,414 @@
+package com.iot.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Table (SrcIP, DstIP) -> Stats hors du tas Java : enregistrements de taille fixe dans un
+// ByteBuffer direct (ou un fichier mappé en mémoire), adressage ouvert à sondage linéaire.
+// Aucun objet par paire => pas de pression GC pour un consolidateur qui tourne longtemps,
+// et la table sauvegardée se recharge par mmap, sans re-parser le CSV.
+//
+// Limites : un ByteBuffer est indexé en int, soit 2^23 enregistrements de 136 octets, donc MAX_PAIRS
+// (~5,9 millions) paires par table (par shard) au facteur de charge ; IP de 1 à 47 caractères ASCII.
+// Un agrandissement garde l'ancien buffer vivant pendant la recopie : au pic, ancien + nouveau buffer
+// (1,5x la nouvelle taille, jusqu'à ~1,6 Gio) ; au-delà de MAX_RESIZE_BYTES, il est refusé.
+// Au-delà, TableLimitException : l'appelant repasse sur une Map (voir ConsolidatorWorkerAws).
+public class OffHeapPairTable implements ConsolidatorWorker.PairSource {
+
+    // Table pleine ou IP non stockable : la table est inutilisable pour ces données
+    public static class TableLimitException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean full;
+
+        TableLimitException(String message, boolean full) {
+            super(message);
+            this.full = full;
+        }
+
+        // Vrai si c'est la taille de l'état (paires ou mémoire) qui dépasse, faux pour une IP hors format
+        public boolean isFull() {
+            return full;
+        }
+    }
+
+    private static final int MAGIC = 0x49505054; // "IPPT"
+    private static final int VERSION = 1;
+
+    // En-tête : magic, version, capacité, taille, puis l'ETag S3 et la métadonnée "applied-summary"
+    // de l'objet reflété par la table (chacun : longueur sur 2 octets + ASCII)
+    private static final int HEADER_SIZE = 1024;
+    private static final int OFF_CAPACITY = 8;
+    private static final int OFF_SIZE = 12;
+    private static final int OFF_ETAG = 16;
+    private static final int MAX_ETAG_LENGTH = 126;
+    private static final int OFF_APPLIED = OFF_ETAG + 2 + MAX_ETAG_LENGTH;
+    private static final int MAX_APPLIED_LENGTH = HEADER_SIZE - OFF_APPLIED - 2;
+
+    // Enregistrement : [len][IP ASCII] x 2, puis count (long) et les 4 sommes (double)
+    private static final int MAX_IP_LENGTH = 47;
+    private static final int IP_FIELD = 1 + MAX_IP_LENGTH;
+    private static final int OFF_SRC = 0;
+    private static final int OFF_DST = IP_FIELD;
+    private static final int OFF_COUNT = 2 * IP_FIELD;
+    private static final int OFF_SUM_FLOW = OFF_COUNT + 8;
+    private static final int OFF_SUM_FLOW_SQ = OFF_SUM_FLOW + 8;
+    private static final int OFF_SUM_FWD = OFF_SUM_FLOW_SQ + 8;
+    private static final int OFF_SUM_FWD_SQ = OFF_SUM_FWD + 8;
+    static final int RECORD_SIZE = OFF_SUM_FWD_SQ + 8;
+
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final int MIN_CAPACITY = 1024;
+    // Plus grande puissance de 2 dont le buffer tient dans un int
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE);
+    public static final int MAX_PAIRS = (int) (MAX_CAPACITY * MAX_LOAD_FACTOR);
+
+    // Mémoire directe qu'un agrandissement peut occuper (ancien + nouveau buffer). Par défaut, la taille
+    // max du tas : c'est aussi la limite de mémoire directe de la JVM sans -XX:MaxDirectMemorySize.
+    private static final long MAX_RESIZE_BYTES = Long.getLong("iot.consolidator.offheapMaxMb",
+            Runtime.getRuntime().maxMemory() / (1024 * 1024)) * 1024 * 1024;
+
+    private ByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+    private OffHeapPairTable(ByteBuffer buffer, int capacity, int size) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.size = size;
+    }
+
+    public static OffHeapPairTable allocate(int expectedPairs) {
+        int capacity = capacityFor(expectedPairs);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize(capacity));
+        OffHeapPairTable table = new OffHeapPairTable(buffer, capacity, 0);
+        table.writeHeader();
+        return table;
+    }
+
+    // Mappe une table sauvegardée (copie privée : les modifications ne touchent pas le fichier
+    // tant que saveTo() n'est pas appelé)
+    public static OffHeapPairTable load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Fichier de table off-heap invalide : " + file);
+            }
+            int capacity = buffer.getInt(OFF_CAPACITY);
+            int size = buffer.getInt(OFF_SIZE);
+            if (buffer.capacity() != bufferSize(capacity)) {
+                throw new IOException("Fichier de table off-heap tronqué : " + file);
+            }
+            return new OffHeapPairTable(buffer, capacity, size);
+        }
+    }
+
+    // Écrit la table dans un fichier temporaire puis le renomme (jamais de fichier à moitié écrit)
+    public void saveTo(Path file) throws IOException {
+        writeHeader();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            channel.force(true);
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Nombre de cases (puissance de 2)
+    int capacity() {
+        return capacity;
+    }
+
+    // ETag de l'objet S3 dont cette table est la copie (null si inconnu)
+    public String etag() {
+        return getHeaderString(OFF_ETAG);
+    }
+
+    // Métadonnée "applied-summary" de cet objet S3 (null si aucune)
+    public String appliedValue() {
+        return getHeaderString(OFF_APPLIED);
+    }
+
+    public void setSource(String etag, String appliedValue) {
+        putHeaderString(OFF_ETAG, MAX_ETAG_LENGTH, etag);
+        putHeaderString(OFF_APPLIED, MAX_APPLIED_LENGTH, appliedValue);
+    }
+
+    // Vrai si `additional` nouvelles paires au plus tiennent encore dans la table
+    public boolean hasRoomFor(long additional) {
+        return size + additional <= MAX_PAIRS;
+    }
+
+    // Agrandit la table en une seule fois pour `additional` nouvelles paires au plus : les add qui
+    // suivent ne l'agrandissent plus. TableLimitException si elle ne tiendrait pas (MAX_PAIRS, ou
+    // pic d'agrandissement au-delà de MAX_RESIZE_BYTES) : la table n'est alors pas modifiée.
+    public void reserve(long additional) {
+        if (!hasRoomFor(additional)) {
+            throw new TableLimitException("Table off-heap pleine (" + size + " + " + additional
+                    + " paires, max " + MAX_PAIRS + ")", true);
+        }
+        int needed = capacityFor((int) (size + additional));
+        if (needed > capacity) {
+            resize(needed);
+        }
+    }
+
+    // IP stockable dans un enregistrement (1 à MAX_IP_LENGTH caractères ASCII)
+    public static boolean isStorableIp(String ip) {
+        int len = ip.length();
+        if (len == 0 || len > MAX_IP_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (ip.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Ajoute (fusionne) les stats d'une paire. TableLimitException si la table est pleine ou si une IP
+    // n'est pas stockable : la table n'est alors pas modifiée.
+    public void add(String srcIp, String dstIp, ConsolidatorWorker.Stats s) {
+        if ((size + 1) > capacity * MAX_LOAD_FACTOR) {
+            grow();
+        }
+
+        int offset = findSlot(srcIp, dstIp);
+        if (buffer.get(offset + OFF_SRC) == 0) {
+            if (!isStorableIp(srcIp) || !isStorableIp(dstIp)) {
+                throw new TableLimitException("IP hors format pour la table off-heap : '" + srcIp
+                        + "' -> '" + dstIp + "'", false);
+            }
+            putIp(offset + OFF_SRC, srcIp);
+            putIp(offset + OFF_DST, dstIp);
+            size++;
+        }
+
+        buffer.putLong(offset + OFF_COUNT, buffer.getLong(offset + OFF_COUNT) + s.count);
+        addDouble(offset + OFF_SUM_FLOW, s.sumFlow);
+        addDouble(offset + OFF_SUM_FLOW_SQ, s.sumFlowSq);
+        addDouble(offset + OFF_SUM_FWD, s.sumFwd);
+        addDouble(offset + OFF_SUM_FWD_SQ, s.sumFwdSq);
+    }
+
+    // Copie des stats d'une paire, ou null si absente
+    public ConsolidatorWorker.Stats get(String srcIp, String dstIp) {
+        int offset = findSlot(srcIp, dstIp);
+        if (buffer.get(offset + OFF_SRC) == 0) {
+            return null;
+        }
+        return readStats(offset);
+    }
+
+    // Parcours dans l'ordre (SrcIP, DstIP) : les enregistrements sont triés sur leurs octets,
+    // sans recréer les clés en String (seul un index de ~36 octets par paire vit dans le tas)
+    @Override
+    public void forEach(ConsolidatorWorker.PairVisitor visitor) throws IOException {
+        int[] offsets = new int[size];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = recordOffset(slot);
+            if (buffer.get(offset + OFF_SRC) != 0) {
+                offsets[n++] = offset;
+            }
+        }
+
+        // Clé d'un enregistrement : "SrcIP|DstIP", lue dans le buffer
+        KeySorter sorter = new KeySorter() {
+            @Override
+            protected int length(int item) {
+                int offset = offsets[item];
+                return buffer.get(offset + OFF_SRC) + 1 + buffer.get(offset + OFF_DST);
+            }
+
+            @Override
+            protected char charAt(int item, int index) {
+                int offset = offsets[item];
+                int srcLength = buffer.get(offset + OFF_SRC);
+                if (index < srcLength) {
+                    return (char) buffer.get(offset + OFF_SRC + 1 + index);
+                }
+                return (index == srcLength) ? '|' : (char) buffer.get(offset + OFF_DST + index - srcLength);
+            }
+        };
+
+        for (int item : sorter.sortedOrder(n)) {
+            int offset = offsets[item];
+            visitor.visit(getIp(offset + OFF_SRC), getIp(offset + OFF_DST), readStats(offset));
+        }
+    }
+
+    // Sondage linéaire : renvoie l'enregistrement de la paire, ou la première case vide
+    private int findSlot(String srcIp, String dstIp) {
+        int mask = capacity - 1;
+        int slot = hash(srcIp, dstIp) & mask;
+
+        while (true) {
+            int offset = recordOffset(slot);
+            if (buffer.get(offset + OFF_SRC) == 0
+                    || (ipEquals(offset + OFF_SRC, srcIp) && ipEquals(offset + OFF_DST, dstIp))) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Double la capacité
+    private void grow() {
+        resize(capacity * 2);
+    }
+
+    // Les enregistrements sont ré-insérés dans un nouveau buffer direct de newCapacity cases
+    private void resize(int newCapacity) {
+        if (newCapacity > MAX_CAPACITY) {
+            throw new TableLimitException("Table off-heap pleine (" + size + " paires, max " + MAX_PAIRS + ")", true);
+        }
+        if (!resizeFits(capacity, newCapacity, MAX_RESIZE_BYTES)) {
+            throw new TableLimitException("Agrandissement de la table off-heap refusé : "
+                    + (resizePeakBytes(capacity, newCapacity) >> 20) + " Mo au pic (ancien + nouveau buffer), max "
+                    + (MAX_RESIZE_BYTES >> 20) + " Mo (iot.consolidator.offheapMaxMb)", true);
+        }
+        OffHeapPairTable bigger = new OffHeapPairTable(ByteBuffer.allocateDirect(bufferSize(newCapacity)),
+                newCapacity, 0);
+        bigger.writeHeader();
+        bigger.setSource(etag(), appliedValue());
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = recordOffset(slot);
+            if (buffer.get(offset + OFF_SRC) != 0) {
+                int target = bigger.findSlot(getIp(offset + OFF_SRC), getIp(offset + OFF_DST));
+                bigger.buffer.put(target, buffer, offset, RECORD_SIZE);
+                bigger.size++;
+            }
+        }
+
+        this.buffer = bigger.buffer;
+        this.capacity = bigger.capacity;
+        this.size = bigger.size;
+    }
+
+    private ConsolidatorWorker.Stats readStats(int offset) {
+        ConsolidatorWorker.Stats s = new ConsolidatorWorker.Stats();
+        s.count = buffer.getLong(offset + OFF_COUNT);
+        s.sumFlow = buffer.getDouble(offset + OFF_SUM_FLOW);
+        s.sumFlowSq = buffer.getDouble(offset + OFF_SUM_FLOW_SQ);
+        s.sumFwd = buffer.getDouble(offset + OFF_SUM_FWD);
+        s.sumFwdSq = buffer.getDouble(offset + OFF_SUM_FWD_SQ);
+        return s;
+    }
+
+    private void addDouble(int offset, double value) {
+        buffer.putDouble(offset, buffer.getDouble(offset) + value);
+    }
+
+    // IP stockée en ASCII, précédée de sa longueur (0 = case vide, d'où le refus des IP vides) ;
+    // format vérifié par add (isStorableIp)
+    private void putIp(int offset, String ip) {
+        int len = ip.length();
+        buffer.put(offset, (byte) len);
+        for (int i = 0; i < len; i++) {
+            buffer.put(offset + 1 + i, (byte) ip.charAt(i));
+        }
+    }
+
+    private String getIp(int offset) {
+        int len = buffer.get(offset);
+        byte[] bytes = new byte[len];
+        buffer.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private boolean ipEquals(int offset, String ip) {
+        int len = buffer.get(offset);
+        if (len != ip.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buffer.get(offset + 1 + i) != (byte) ip.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getHeaderString(int offset) {
+        int len = buffer.getShort(offset);
+        if (len == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private void putHeaderString(int offset, int maxLength, String value) {
+        byte[] bytes = (value == null) ? new byte[0] : value.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > maxLength) {
+            throw new IllegalArgumentException("Valeur trop longue pour l'en-tête : " + value);
+        }
+        buffer.putShort(offset, (short) bytes.length);
+        buffer.put(offset + 2, bytes);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(OFF_CAPACITY, capacity);
+        buffer.putInt(OFF_SIZE, size);
+    }
+
+    private static int hash(String srcIp, String dstIp) {
+        int h = srcIp.hashCode() * 31 + dstIp.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int bufferSize(int capacity) {
+        return HEADER_SIZE + capacity * RECORD_SIZE;
+    }
+
+    // Mémoire occupée pendant un agrandissement : les deux buffers coexistent le temps de la recopie
+    static long resizePeakBytes(int fromCapacity, int toCapacity) {
+        return (long) bufferSize(fromCapacity) + bufferSize(toCapacity);
+    }
+
+    static boolean resizeFits(int fromCapacity, int toCapacity, long maxBytes) {
+        return resizePeakBytes(fromCapacity, toCapacity) <= maxBytes;
+    }
+
+    // Puissance de 2 telle que expectedPairs reste sous le facteur de charge
+    private static int capacityFor(int expectedPairs) {
+        long needed = (long) Math.ceil(Math.max(expectedPairs, 1) / MAX_LOAD_FACTOR) + 1;
+        long capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new TableLimitException("Table off-heap pleine (" + expectedPairs + " paires, max "
+                    + MAX_PAIRS + ")", true);
+        }
+        return (int) capacity;
+    }
+}
@@ -0,0 +1,111 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Fusion triée (merge-join) et fusion en mémoire (HashMap) : mêmes additions dans le même ordre,
+// donc fichiers consolidés identiques octet pour octet
+class MergeJoinConsolidationTest {
+
+    @Test
+    void mergeJoinMatchesHashPath(@TempDir Path dir) throws Exception {
+        Path first = writeSortedSummary(dir.resolve("first.csv"), 3000, 21);
+        Path second = writeSortedSummary(dir.resolve("second.csv"), 3000, 22);
+        Path third = writeSortedSummary(dir.resolve("third.csv"), 2000, 23);
+
+        // État initial, puis un résumé, puis deux résumés d'un même lot
+        Path hashState = dir.resolve("hash-state.csv");
+        ConsolidatorWorker.consolidate(first.toString(), hashState.toString());
+        Path mergeState = dir.resolve("merge-state.csv");
+        MergeJoinConsolidator.consolidate(null, List.of(first.toString()), mergeState.toString());
+        assertSameBytes(hashState, mergeState);
+
+        Path hashNext = dir.resolve("hash-next.csv");
+        ConsolidatorWorker.consolidate(second.toString(), hashState.toString(), hashNext.toString());
+        Path mergeNext = dir.resolve("merge-next.csv");
+        MergeJoinConsolidator.consolidate(mergeState.toString(), List.of(second.toString()), mergeNext.toString());
+        assertSameBytes(hashNext, mergeNext);
+
+        Map<String, ConsolidatorWorker.Stats> merged = new HashMap<>();
+        ConsolidatorWorker.loadConsolidated(hashNext.toString(), merged);
+        ConsolidatorWorker.accumulateSummary(first.toString(), List.of(merged));
+        ConsolidatorWorker.accumulateSummary(third.toString(), List.of(merged));
+        Path hashBatch = dir.resolve("hash-batch.csv");
+        ConsolidatorWorker.writeConsolidated(merged, hashBatch.toString());
+        Path mergeBatch = dir.resolve("merge-batch.csv");
+        MergeJoinConsolidator.consolidate(mergeNext.toString(), List.of(first.toString(), third.toString()),
+                mergeBatch.toString());
+        assertSameBytes(hashBatch, mergeBatch);
+    }
+
+    // État écrit avant le tri : la fusion triée le refuse, la fusion en mémoire (repli de commitShard)
+    // produit le même état trié que la fusion triée de l'état trié
+    @Test
+    void unsortedStateFallsBackToTheSameResult(@TempDir Path dir) throws Exception {
+        Path summary = writeSortedSummary(dir.resolve("summary.csv"), 2000, 31);
+        Path delta = writeSortedSummary(dir.resolve("delta.csv"), 1000, 32);
+
+        Path sortedState = dir.resolve("state.csv");
+        ConsolidatorWorker.consolidate(summary.toString(), sortedState.toString());
+        List<String> lines = Files.readAllLines(sortedState);
+        List<String> rows = new ArrayList<>(lines.subList(1, lines.size()));
+        Collections.shuffle(rows, new Random(3));
+        rows.add(0, lines.get(0));
+        Path unsortedState = Files.write(dir.resolve("unsorted-state.csv"), rows);
+
+        assertThrows(MergeJoinConsolidator.UnsortedInputException.class,
+                () -> MergeJoinConsolidator.consolidate(unsortedState.toString(), List.of(delta.toString()),
+                        dir.resolve("rejected.csv").toString()));
+
+        Path fallback = dir.resolve("fallback.csv");
+        ConsolidatorWorker.consolidate(delta.toString(), unsortedState.toString(), fallback.toString());
+        Path mergeJoin = dir.resolve("merge-join.csv");
+        MergeJoinConsolidator.consolidate(sortedState.toString(), List.of(delta.toString()), mergeJoin.toString());
+        assertSameBytes(mergeJoin, fallback);
+    }
+
+    private static void assertSameBytes(Path expected, Path actual) throws IOException {
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual), actual.toString());
+    }
+
+    // Résumé trié par (SrcIP, DstIP, Date) comme ceux de SummaryWriter ; paires communes entre graines
+    private static Path writeSortedSummary(Path path, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String src = "10.0." + random.nextInt(3) + "." + random.nextInt(40);
+            String dst = "192.168.0." + random.nextInt(30);
+            String date = "2022-12-0" + (1 + random.nextInt(9));
+            lines.add(src + "|" + dst + "|" + date + "|" + random.nextInt(100_000) + "|" + random.nextInt(50));
+        }
+        lines.sort(KeySorter.KEY_ORDER);
+
+        StringBuilder csv = new StringBuilder("\"Date\",\"SrcIP\",\"DstIP\",\"TotalFlowDuration\",\"TotalFwdPkt\"\n");
+        String previous = null;
+        for (String line : lines) {
+            String[] f = line.split("\\|");
+            String key = f[0] + "|" + f[1] + "|" + f[2];
+            if (key.equals(previous)) {
+                continue; // une ligne par (SrcIP, DstIP, Date) dans un résumé
+            }
+            previous = key;
+            csv.append('"').append(f[2]).append("\",\"").append(f[0]).append("\",\"").append(f[1])
+                    .append("\",\"").append(f[3]).append("\",\"").append(f[4]).append("\"\n");
+        }
+        Files.writeString(path, csv);
+        return path;
+    }
+}
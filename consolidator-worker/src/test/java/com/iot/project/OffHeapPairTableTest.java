@@ -0,0 +1,76 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Limites documentées de la table off-heap
+class OffHeapPairTableTest {
+
+    // 2^23 enregistrements de 136 octets au facteur de charge 0,7
+    @Test
+    void maxPairsMatchesTheBufferLimit() {
+        assertEquals(136, OffHeapPairTable.RECORD_SIZE);
+        assertEquals(5_872_025, OffHeapPairTable.MAX_PAIRS);
+
+        OffHeapPairTable table = OffHeapPairTable.allocate(0);
+        assertTrue(table.hasRoomFor(OffHeapPairTable.MAX_PAIRS));
+        assertFalse(table.hasRoomFor(OffHeapPairTable.MAX_PAIRS + 1L));
+        assertThrows(OffHeapPairTable.TableLimitException.class,
+                () -> OffHeapPairTable.allocate(OffHeapPairTable.MAX_PAIRS + 1));
+    }
+
+    // IP non stockable : exception dédiée, table inchangée
+    @Test
+    void unstorableIpLeavesTheTableUnchanged() {
+        assertTrue(OffHeapPairTable.isStorableIp("fe80::1"));
+        assertFalse(OffHeapPairTable.isStorableIp(""));
+        assertFalse(OffHeapPairTable.isStorableIp("10.0.0.é"));
+        assertFalse(OffHeapPairTable.isStorableIp("x".repeat(48)));
+
+        OffHeapPairTable table = OffHeapPairTable.allocate(0);
+        ConsolidatorWorker.Stats stats = ConsolidatorWorker.fromMeanStd(1, 10, 0, 2, 0);
+        table.add("10.0.0.1", "192.168.0.1", stats);
+
+        assertThrows(OffHeapPairTable.TableLimitException.class, () -> table.add("", "192.168.0.1", stats));
+        assertThrows(OffHeapPairTable.TableLimitException.class, () -> table.add("10.0.0.1", "ïp", stats));
+        assertEquals(1, table.size());
+        assertNull(table.get("10.0.0.2", "192.168.0.1"));
+        assertEquals(1, table.get("10.0.0.1", "192.168.0.1").count);
+    }
+
+    // Lot annoncé : un seul agrandissement avant la fusion, contenu conservé
+    @Test
+    void reserveGrowsOnceAndKeepsTheRecords() {
+        OffHeapPairTable table = OffHeapPairTable.allocate(0);
+        ConsolidatorWorker.Stats stats = ConsolidatorWorker.fromMeanStd(1, 10, 0, 2, 0);
+        table.add("10.0.0.1", "192.168.0.1", stats);
+
+        table.reserve(10_000);
+        int capacity = table.capacity();
+        assertTrue(capacity >= 10_001 / 0.7);
+        for (int i = 0; i < 10_000; i++) {
+            table.add("10.1." + (i >> 8) + "." + (i & 0xFF), "192.168.0.1", stats);
+        }
+        assertEquals(capacity, table.capacity());
+        assertEquals(10_001, table.size());
+        assertEquals(1, table.get("10.0.0.1", "192.168.0.1").count);
+
+        assertThrows(OffHeapPairTable.TableLimitException.class, () -> table.reserve(OffHeapPairTable.MAX_PAIRS));
+        assertEquals(capacity, table.capacity());
+        assertEquals(10_001, table.size());
+    }
+
+    // Pic d'un agrandissement : ancien et nouveau buffer coexistent (~1,6 Gio pour le dernier doublement)
+    @Test
+    void resizePeakCountsBothBuffers() {
+        long last = OffHeapPairTable.resizePeakBytes(1 << 22, 1 << 23);
+        assertEquals(2 * 1024 + 3L * (1 << 22) * OffHeapPairTable.RECORD_SIZE, last);
+        assertTrue(OffHeapPairTable.resizeFits(1 << 22, 1 << 23, last));
+        assertFalse(OffHeapPairTable.resizeFits(1 << 22, 1 << 23, last - 1));
+    }
+}
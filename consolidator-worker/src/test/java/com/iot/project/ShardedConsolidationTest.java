@@ -0,0 +1,149 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Partitionnement de l'état consolidé par hash de SrcIP : routage des lignes, équivalence avec
+// l'état non partitionné, et coût d'un commit proportionnel à la taille du shard touché.
+class ShardedConsolidationTest {
+
+    // Vecteurs figés : le même hash doit être utilisé par SummarizeWorker et ExportClient
+    @Test
+    void shardOfIsStable() {
+        assertEquals(6, ConsolidatorWorker.shardOf("10.0.4.32", 8));
+        assertEquals(3, ConsolidatorWorker.shardOf("192.168.1.10", 8));
+        assertEquals(2, ConsolidatorWorker.shardOf("fe80::1", 8));
+        assertEquals(2, ConsolidatorWorker.shardOf("10.0.0.1", 3));
+        assertEquals(0, ConsolidatorWorker.shardOf("10.0.0.1", 1));
+    }
+
+    @Test
+    void rowsAreRoutedToTheShardOfTheirSrcIp(@TempDir Path dir) throws Exception {
+        Path summary = writeSummary(dir.resolve("summary.csv"), 400, 20, 1);
+
+        List<Map<String, ConsolidatorWorker.Stats>> shardMaps = newShardMaps(8);
+        ConsolidatorWorker.accumulateSummary(summary.toString(), shardMaps);
+
+        long pairs = 0;
+        for (int shard = 0; shard < shardMaps.size(); shard++) {
+            for (String key : shardMaps.get(shard).keySet()) {
+                String srcIp = key.substring(0, key.indexOf('|'));
+                assertEquals(shard, ConsolidatorWorker.shardOf(srcIp, 8), key);
+            }
+            pairs += shardMaps.get(shard).size();
+        }
+        assertEquals(400 * 20, pairs);
+    }
+
+    // La concaténation des N shards consolidés contient exactement les lignes de l'état unique
+    @Test
+    void shardedStateMatchesSingleState(@TempDir Path dir) throws Exception {
+        Path summary = writeSummary(dir.resolve("summary.csv"), 300, 10, 2);
+
+        Path single = dir.resolve("single.csv");
+        ConsolidatorWorker.consolidate(summary.toString(), single.toString());
+
+        List<Map<String, ConsolidatorWorker.Stats>> shardMaps = newShardMaps(4);
+        ConsolidatorWorker.accumulateSummary(summary.toString(), shardMaps);
+        List<String> shardedRows = new ArrayList<>();
+        for (int shard = 0; shard < shardMaps.size(); shard++) {
+            Path shardCsv = dir.resolve("shard-" + shard + ".csv");
+            ConsolidatorWorker.writeConsolidated(shardMaps.get(shard), shardCsv.toString());
+            List<String> lines = Files.readAllLines(shardCsv);
+            shardedRows.addAll(lines.subList(1, lines.size()));
+        }
+
+        List<String> singleLines = Files.readAllLines(single);
+        List<String> expected = new ArrayList<>(singleLines.subList(1, singleLines.size()));
+        expected.sort(null);
+        shardedRows.sort(null);
+        assertEquals(expected, shardedRows);
+    }
+
+    // Coût d'un commit (paires relues + paires réécrites) pour un résumé qui ne touche qu'un shard :
+    // il suit la taille du shard (état / N), pas la taille totale de l'état.
+    @Test
+    void commitCostScalesWithShardSize(@TempDir Path dir) throws Exception {
+        Path state = writeSummary(dir.resolve("state.csv"), 2000, 8, 3);
+        long totalPairs = 2000 * 8;
+
+        long previousCost = Long.MAX_VALUE;
+        for (int shardCount : new int[]{1, 2, 4, 8}) {
+            List<Map<String, ConsolidatorWorker.Stats>> shardMaps = newShardMaps(shardCount);
+            ConsolidatorWorker.accumulateSummary(state.toString(), shardMaps);
+            Path[] shardFiles = new Path[shardCount];
+            for (int shard = 0; shard < shardCount; shard++) {
+                shardFiles[shard] = dir.resolve(shardCount + "-shard-" + shard + ".csv");
+                ConsolidatorWorker.writeConsolidated(shardMaps.get(shard), shardFiles[shard].toString());
+            }
+
+            // Nouveau résumé : une seule SrcIP, donc un seul shard touché
+            Path delta = dir.resolve(shardCount + "-delta.csv");
+            Files.writeString(delta, "\"Date\",\"SrcIP\",\"DstIP\",\"TotalFlowDuration\",\"TotalFwdPkt\"\n"
+                    + "\"2022-12-01\",\"10.0.0.7\",\"192.168.9.9\",\"100\",\"2\"\n");
+            List<Map<String, ConsolidatorWorker.Stats>> deltaMaps = newShardMaps(shardCount);
+            ConsolidatorWorker.accumulateSummary(delta.toString(), deltaMaps);
+
+            int touched = ConsolidatorWorker.shardOf("10.0.0.7", shardCount);
+            assertEquals(1, deltaMaps.get(touched).size());
+            long cost = commitShard(shardFiles[touched], deltaMaps.get(touched), dir.resolve("out.csv"));
+
+            // Shard touché : ~état / N (tolérance de 30 % sur la répartition du hash)
+            assertTrue(cost <= 2 * (totalPairs / shardCount) * 13 / 10 + 2,
+                    shardCount + " shards : coût " + cost + " pour un état de " + totalPairs + " paires");
+            assertTrue(cost < previousCost, shardCount + " shards : " + cost + " >= " + previousCost);
+            previousCost = cost;
+        }
+    }
+
+    // Commit d'un shard comme ConsolidatorWorkerAws.commitShard (sans S3) : renvoie le nombre de paires
+    // relues puis réécrites
+    private static long commitShard(Path shardCsv, Map<String, ConsolidatorWorker.Stats> delta, Path output)
+            throws Exception {
+        Map<String, ConsolidatorWorker.Stats> merged = new HashMap<>();
+        ConsolidatorWorker.loadConsolidated(shardCsv.toString(), merged);
+        long read = merged.size();
+        for (Map.Entry<String, ConsolidatorWorker.Stats> entry : delta.entrySet()) {
+            merged.computeIfAbsent(entry.getKey(), k -> new ConsolidatorWorker.Stats()).add(entry.getValue());
+        }
+        ConsolidatorWorker.writeConsolidated(merged, output.toString());
+        return read + merged.size();
+    }
+
+    private static List<Map<String, ConsolidatorWorker.Stats>> newShardMaps(int shardCount) {
+        List<Map<String, ConsolidatorWorker.Stats>> shardMaps = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardMaps.add(new HashMap<>());
+        }
+        return shardMaps;
+    }
+
+    // Résumé synthétique : srcCount SrcIP x dstPerSrc DstIP, une ligne par paire
+    static Path writeSummary(Path path, int srcCount, int dstPerSrc, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("\"Date\",\"SrcIP\",\"DstIP\",\"TotalFlowDuration\",\"TotalFwdPkt\"\n");
+        for (int s = 0; s < srcCount; s++) {
+            for (int d = 0; d < dstPerSrc; d++) {
+                csv.append("\"2022-12-0").append(1 + random.nextInt(9)).append("\",")
+                        .append("\"10.").append(s / 250).append('.').append(s % 250).append(".1\",")
+                        .append("\"192.168.").append(d / 250).append('.').append(d % 250).append("\",")
+                        .append('"').append(random.nextInt(100_000)).append("\",")
+                        .append('"').append(random.nextInt(50)).append("\"\n");
+            }
+        }
+        Files.writeString(path, csv);
+        return path;
+    }
+}
@@ -5,26 +5,81 @@ import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 import java.io.IOException;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ExportClient {
 
     // À adapter sur AWS (région du bucket)
     private static final Region REGION = Region.EU_WEST_3;
 
+    // Préfixe d'un état consolidé partitionné par hash de SrcIP
+    private static final Pattern SHARD_DIR = Pattern.compile(".*shards-(\\d+)/");
+
     public static void main(String[] args) {
+        // Requêtes sur les sketches consolidés (vues topk / fanout, quelques Ko à lire)
+        if (args.length == 5 && args[0].equals("topk")) {
+            try {
+                exportTopK(args[1], args[2], args[3], Integer.parseInt(args[4]));
+            } catch (Exception e) {
+                System.err.println("Erreur export : " + e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (args.length == 4 && args[0].equals("fanout")) {
+            try {
+                exportFanout(args[1], args[2], args[3]);
+            } catch (Exception e) {
+                System.err.println("Erreur export : " + e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // Évolution d'une paire sur une période, d'après les rollups journaliers / hebdomadaires
+        if (args.length == 8 && args[0].equals("range")) {
+            try {
+                exportRange(args[1], args[2], args[3],
+                        LocalDate.parse(args[4]), LocalDate.parse(args[5]), args[6], args[7]);
+            } catch (IOException | CsvValidationException | SdkException
+                     | DateTimeParseException | IllegalArgumentException e) {
+                System.err.println("Erreur export : " + e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+
         if (args.length != 4) {
             System.out.println("Usage: java ExportClient <bucket> <key> <srcIp> <dstIp>");
+            System.out.println("       java ExportClient range <bucket> <key> <daily|weekly> <from> <to> <srcIp> <dstIp>");
+            System.out.println("       java ExportClient topk <bucket> <key> <packets|duration> <k>");
+            System.out.println("       java ExportClient fanout <bucket> <key> <srcIp>");
             System.exit(1);
         }
 
@@ -51,6 +106,9 @@ public class ExportClient {
                 .credentialsProvider(DefaultCredentialsProvider.create())
                 .build();
 
+        // Layout shardé (ex : consolidated/shards-8/) : on ne lit que le shard de srcFilter
+        key = resolveShardKey(key, srcFilter);
+
         // 1. Télécharger consolidated.csv depuis S3 dans un fichier temporaire
         Path tempFile = Files.createTempFile("consolidated-", ".csv");
 
@@ -58,6 +116,8 @@ public class ExportClient {
                 .bucket(bucket)
                 .key(key)
                 .build();
+        // toFile() refuse d'écraser un fichier existant
+        Files.deleteIfExists(tempFile);
         s3.getObject(req, ResponseTransformer.toFile(tempFile));
 
         // 2. Lire le fichier et filtrer
@@ -88,4 +148,280 @@ public class ExportClient {
 
         System.out.println("✔ Fichier export.csv généré (filtré).");
     }
+
+    // Stats d'une paire par jour ou par semaine entre from et to (inclus). Les partitions existantes
+    // sont listées (pas de GET à l'aveugle par période) ; chacune est lue en flux, triée par
+    // (SrcIP, DstIP), jusqu'à dépasser la paire. En layout shardé, seul le shard de srcFilter est lu.
+    public static void exportRange(String bucket, String key, String granularity,
+                                   LocalDate from, LocalDate to, String srcFilter, String dstFilter)
+            throws IOException, CsvValidationException {
+
+        if (!granularity.equals("daily") && !granularity.equals("weekly")) {
+            throw new IllegalArgumentException("Granularité inconnue (daily|weekly) : " + granularity);
+        }
+
+        S3Client s3 = S3Client.builder()
+                .region(REGION)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+
+        // Semaines : partitions indexées par leur lundi
+        boolean weekly = granularity.equals("weekly");
+        String label = weekly ? "week=" : "date=";
+        List<LocalDate> periods = listPartitions(s3, bucket, granularity, label,
+                weekly ? from.with(DayOfWeek.MONDAY) : from, to);
+
+        try (CSVWriter writer = new CSVWriter(new FileWriter("export.csv", StandardCharsets.UTF_8))) {
+            String[] outHeader = {
+                    "Period", "SrcIP", "DstIP",
+                    "Count",
+                    "MeanFlowDuration", "StdFlowDuration",
+                    "MeanFwdPkt", "StdFwdPkt"
+            };
+            writer.writeNext(outHeader);
+
+            for (LocalDate period : periods) {
+                String rollupKey = rollupKey(key, granularity, label + period, srcFilter);
+                try {
+                    copyPair(s3, bucket, rollupKey, period.toString(), srcFilter, dstFilter, writer);
+                } catch (NoSuchKeyException e) {
+                    // partition sans fichier pour ce shard / ce layout
+                }
+            }
+        }
+
+        System.out.println("✔ Fichier export.csv généré (" + periods.size() + " partition(s) " + granularity + " lues).");
+    }
+
+    // Périodes des partitions rollups/<granularity>/<label><AAAA-MM-JJ>/ entre first et to, dans l'ordre :
+    // la liste S3 est lexicographique, donc chronologique pour des dates ISO.
+    private static List<LocalDate> listPartitions(S3Client s3, String bucket, String granularity,
+                                                  String label, LocalDate first, LocalDate to) {
+        String prefix = "rollups/" + granularity + "/";
+        List<LocalDate> periods = new ArrayList<>();
+        String token = null;
+        do {
+            ListObjectsV2Response page = s3.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .delimiter("/")
+                    .startAfter(prefix + label + first) // juste avant ".../<label><first>/"
+                    .continuationToken(token)
+                    .build());
+            for (CommonPrefix partition : page.commonPrefixes()) {
+                LocalDate period = partitionPeriod(partition.prefix(), prefix + label);
+                if (period == null) {
+                    continue;
+                }
+                if (period.isAfter(to)) {
+                    return periods;
+                }
+                periods.add(period);
+            }
+            token = page.nextContinuationToken();
+        } while (token != null);
+        return periods;
+    }
+
+    // "rollups/daily/date=2022-12-07/" -> 2022-12-07 ; null si ce n'est pas une partition
+    static LocalDate partitionPeriod(String commonPrefix, String partitionPrefix) {
+        if (!commonPrefix.startsWith(partitionPrefix) || !commonPrefix.endsWith("/")) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(commonPrefix.substring(partitionPrefix.length(), commonPrefix.length() - 1));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Recopie les lignes de la paire, préfixées par period. Le rollup est lu en flux et la lecture
+    // abandonnée dès la première paire qui suit (srcFilter, dstFilter).
+    private static void copyPair(S3Client s3, String bucket, String rollupKey, String period,
+                                 String srcFilter, String dstFilter, CSVWriter writer)
+            throws IOException, CsvValidationException {
+
+        ResponseInputStream<GetObjectResponse> in = s3.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(rollupKey)
+                .build());
+        try (CSVReader reader = new CSVReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.readNext(); // en-tête
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                int cmp = comparePairs(line[0], line[1], srcFilter, dstFilter);
+                if (cmp > 0) {
+                    in.abort(); // inutile de télécharger la suite
+                    break;
+                }
+                if (cmp == 0) {
+                    String[] row = new String[line.length + 1];
+                    row[0] = period;
+                    System.arraycopy(line, 0, row, 1, line.length);
+                    writer.writeNext(row);
+                }
+            }
+        }
+    }
+
+    // Ordre des rollups : SrcIP puis DstIP (String.compareTo), comme le consolidateur
+    static int comparePairs(String srcA, String dstA, String srcB, String dstB) {
+        int cmp = srcA.compareTo(srcB);
+        return (cmp != 0) ? cmp : dstA.compareTo(dstB);
+    }
+
+    // Partition de rollup écrite par le consolidateur, avec le même partitionnement que key :
+    // rollups/daily/date=AAAA-MM-JJ/rollup.csv, ou .../shards-N/shard-XXXX.csv
+    static String rollupKey(String key, String granularity, String partition, String srcIp) {
+        String prefix = "rollups/" + granularity + "/" + partition + "/";
+        Matcher m = SHARD_DIR.matcher(key);
+        if (!m.matches()) {
+            return prefix + "rollup.csv";
+        }
+        int shardCount = Integer.parseInt(m.group(1));
+        return prefix + String.format("shards-%d/shard-%04d.csv", shardCount,
+                Math.floorMod(srcIp.hashCode(), shardCount));
+    }
+
+    // Top-K des paires (SrcIP, DstIP) en paquets ou en durée, d'après les vues topk du consolidateur.
+    // Layout shardé : les paires de shards différents sont disjointes, on fusionne les N vues.
+    public static void exportTopK(String bucket, String key, String metric, int k)
+            throws IOException, CsvValidationException {
+
+        String metricName;
+        if (metric.equalsIgnoreCase("packets")) {
+            metricName = "Packets";
+        } else if (metric.equalsIgnoreCase("duration")) {
+            metricName = "Duration";
+        } else {
+            throw new IllegalArgumentException("Métrique inconnue (packets|duration) : " + metric);
+        }
+
+        S3Client s3 = S3Client.builder()
+                .region(REGION)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+
+        String[] header = null;
+        List<String[]> rows = new ArrayList<>();
+        for (String viewKey : sketchViewKeys(key, "topk")) {
+            List<String[]> view = downloadCsv(s3, bucket, viewKey);
+            header = view.get(0);
+            for (String[] line : view.subList(1, view.size())) {
+                if (line[0].equals(metricName)) {
+                    rows.add(line);
+                }
+            }
+        }
+        if (header == null) {
+            throw new IOException("Vue topk vide !");
+        }
+
+        // Colonnes : Metric,Rank,SrcIP,DstIP,Estimate,MaxError
+        rows.sort(Comparator.comparingLong((String[] line) -> Long.parseLong(line[4])).reversed());
+
+        try (CSVWriter writer = new CSVWriter(new FileWriter("export.csv", StandardCharsets.UTF_8))) {
+            writer.writeNext(header);
+            for (int i = 0; i < Math.min(k, rows.size()); i++) {
+                String[] line = rows.get(i);
+                line[1] = String.valueOf(i + 1);
+                writer.writeNext(line);
+                System.out.println(line[1] + ". " + line[2] + " -> " + line[3] + " : " + line[4]
+                        + " (erreur max " + line[5] + ")");
+            }
+        }
+
+        System.out.println("✔ Fichier export.csv généré (top " + k + " " + metricName + ").");
+    }
+
+    // Nombre estimé de DstIP distinctes contactées par une SrcIP (vue fanout de son shard)
+    public static void exportFanout(String bucket, String key, String srcIp)
+            throws IOException, CsvValidationException {
+
+        S3Client s3 = S3Client.builder()
+                .region(REGION)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+
+        Matcher m = SHARD_DIR.matcher(key);
+        String viewKey;
+        if (m.matches()) {
+            int shardCount = Integer.parseInt(m.group(1));
+            viewKey = String.format("%sfanout-%04d.csv", key,
+                    Math.floorMod(srcIp.hashCode(), shardCount));
+        } else {
+            viewKey = sketchViewKeys(key, "fanout").get(0);
+        }
+
+        List<String[]> view = downloadCsv(s3, bucket, viewKey);
+        try (CSVWriter writer = new CSVWriter(new FileWriter("export.csv", StandardCharsets.UTF_8))) {
+            writer.writeNext(view.get(0));
+            for (String[] line : view.subList(1, view.size())) {
+                if (line[0].equals(srcIp)) {
+                    writer.writeNext(line);
+                    System.out.println(srcIp + " : ~" + line[1] + " DstIP distinctes");
+                }
+            }
+        }
+
+        System.out.println("✔ Fichier export.csv généré (fan-out de " + srcIp + ").");
+    }
+
+    // Vues des sketches publiées à côté de l'état consolidé :
+    // "consolidated/consolidated.csv" -> "consolidated/<view>.csv",
+    // "consolidated/shards-N/" -> "consolidated/shards-N/<view>-XXXX.csv" pour chaque shard
+    static List<String> sketchViewKeys(String key, String view) {
+        List<String> keys = new ArrayList<>();
+        Matcher m = SHARD_DIR.matcher(key);
+        if (m.matches()) {
+            int shardCount = Integer.parseInt(m.group(1));
+            for (int shard = 0; shard < shardCount; shard++) {
+                keys.add(String.format("%s%s-%04d.csv", key, view, shard));
+            }
+        } else {
+            int slash = key.lastIndexOf('/');
+            keys.add(key.substring(0, slash + 1) + view + ".csv");
+        }
+        return keys;
+    }
+
+    // Télécharge un petit CSV (vue de sketches) et renvoie toutes ses lignes, en-tête compris
+    private static List<String[]> downloadCsv(S3Client s3, String bucket, String key)
+            throws IOException, CsvValidationException {
+
+        Path tempFile = Files.createTempFile("view-", ".csv");
+        try {
+            Files.deleteIfExists(tempFile);
+            s3.getObject(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build(), ResponseTransformer.toFile(tempFile));
+
+            List<String[]> lines = new ArrayList<>();
+            try (CSVReader reader = new CSVReader(
+                    new FileReader(tempFile.toFile(), StandardCharsets.UTF_8))) {
+                String[] line;
+                while ((line = reader.readNext()) != null) {
+                    lines.add(line);
+                }
+            }
+            if (lines.isEmpty()) {
+                throw new IOException(key + " vide !");
+            }
+            return lines;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // "consolidated/shards-N/" -> "consolidated/shards-N/shard-XXXX.csv" (même hash que le consolidateur)
+    static String resolveShardKey(String key, String srcIp) {
+        Matcher m = SHARD_DIR.matcher(key);
+        if (!m.matches()) {
+            return key;
+        }
+        int shardCount = Integer.parseInt(m.group(1));
+        int shard = Math.floorMod(srcIp.hashCode(), shardCount);
+        return String.format("%sshard-%04d.csv", key, shard);
+    }
 }
@@ -0,0 +1,56 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Résolution des clés S3 partitionnées : même hash de SrcIP que SummarizeWorker / ConsolidatorWorker
+class ExportClientTest {
+
+    @Test
+    void unshardedKeyIsUnchanged() {
+        assertEquals("consolidated/consolidated.csv",
+                ExportClient.resolveShardKey("consolidated/consolidated.csv", "10.0.4.32"));
+    }
+
+    // Vecteurs figés, identiques aux tests de shardOf des workers
+    @Test
+    void shardedKeyResolvesToTheShardOfSrcIp() {
+        assertEquals("consolidated/shards-8/shard-0006.csv",
+                ExportClient.resolveShardKey("consolidated/shards-8/", "10.0.4.32"));
+        assertEquals("consolidated/shards-8/shard-0003.csv",
+                ExportClient.resolveShardKey("consolidated/shards-8/", "192.168.1.10"));
+        assertEquals("consolidated/shards-8/shard-0002.csv",
+                ExportClient.resolveShardKey("consolidated/shards-8/", "fe80::1"));
+        assertEquals("consolidated/shards-3/shard-0002.csv",
+                ExportClient.resolveShardKey("consolidated/shards-3/", "10.0.0.1"));
+    }
+
+    @Test
+    void rollupKeyFollowsTheStateLayout() {
+        assertEquals("rollups/daily/date=2022-12-07/rollup.csv",
+                ExportClient.rollupKey("consolidated/consolidated.csv", "daily", "date=2022-12-07", "10.0.4.32"));
+        assertEquals("rollups/weekly/week=2022-12-05/shards-8/shard-0006.csv",
+                ExportClient.rollupKey("consolidated/shards-8/", "weekly", "week=2022-12-05", "10.0.4.32"));
+    }
+
+    @Test
+    void partitionPeriodParsesListedPrefixes() {
+        assertEquals(LocalDate.of(2022, 12, 7),
+                ExportClient.partitionPeriod("rollups/daily/date=2022-12-07/", "rollups/daily/date="));
+        assertNull(ExportClient.partitionPeriod("rollups/daily/tmp/", "rollups/daily/date="));
+        assertNull(ExportClient.partitionPeriod("rollups/daily/date=2022-13-01/", "rollups/daily/date="));
+    }
+
+    // Même ordre que le consolidateur : la lecture d'un rollup s'arrête après la paire demandée
+    @Test
+    void pairsCompareBySrcIpThenDstIp() {
+        assertTrue(ExportClient.comparePairs("10.0.0.1", "9.9.9.9", "10.0.0.10", "1.1.1.1") < 0);
+        assertTrue(ExportClient.comparePairs("10.0.0.1", "10.0.0.2", "10.0.0.1", "10.0.0.10") > 0);
+        assertEquals(0, ExportClient.comparePairs("10.0.0.1", "fe80::1", "10.0.0.1", "fe80::1"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.iot.project;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Concurrence adaptative (AIMD) : nombre de messages traités en parallèle par le worker.
+// - hausse additive : +1/limite par message réussi quand le pool est plein (+1 par "tour") ;
+// - baisse multiplicative : x0.5 sur un signal de surcharge S3/SQS (503 SlowDown, 429, throttling,
+//   409/412 de conflit d'écriture), x0.9 si la latence des appels courts dépasse la cible.
+// Branché comme intercepteur sur les clients S3/SQS : chaque tentative HTTP (retries du SDK compris)
+// est observée. Fournit aussi l'attente exponentielle avec jitter de la boucle de poll.
+public class AdaptiveConcurrency implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("iot.concurrency.startNanos");
+
+    // Appels dont la durée ne reflète pas la charge : long polling SQS, upload (dépend de la taille)
+    private static final Set<String> IGNORED_LATENCY = Set.of("ReceiveMessage", "PutObject");
+
+    // Une rafale d'erreurs ne compte que pour une baisse
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // Poids d'une nouvelle mesure dans la moyenne mobile de latence
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    // Attente après un poll en échec : tirage uniforme dans [0, min(max, base * 2^échecs)]
+    private static final long BACKOFF_BASE_MS = 500;
+    private static final long BACKOFF_MAX_MS = Long.getLong("iot.poll.backoffMaxMs", 60_000L);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetMs;
+
+    private double limit;
+    private int inFlight;
+    private double latencyMs = -1;
+    private long lastDecrease = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+    private long overloadSignals;
+    private int pollFailures;
+
+    public AdaptiveConcurrency(int minLimit, int maxLimit, int initialLimit, long latencyTargetMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.latencyTargetMs = latencyTargetMs;
+    }
+
+    // -Diot.concurrency.min / max / initial / latencyTargetMs
+    public static AdaptiveConcurrency fromSystemProperties(int defaultMax) {
+        int min = Integer.getInteger("iot.concurrency.min", 1);
+        return new AdaptiveConcurrency(
+                min,
+                Integer.getInteger("iot.concurrency.max", defaultMax),
+                Integer.getInteger("iot.concurrency.initial", min),
+                Long.getLong("iot.concurrency.latencyTargetMs", 500L));
+    }
+
+    public int maxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    // Latence moyenne des appels courts (ms), -1 tant qu'aucun appel n'a été mesuré
+    public synchronized double latencyMs() {
+        return latencyMs;
+    }
+
+    // Signaux de surcharge reçus depuis le dernier appel
+    public synchronized long drainOverloadSignals() {
+        long n = overloadSignals;
+        overloadSignals = 0;
+        return n;
+    }
+
+    // Bloque jusqu'à ce qu'un message puisse être pris en charge ; renvoie le nombre de places libres
+    public synchronized int awaitCapacity() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        return (int) limit - inFlight;
+    }
+
+    public synchronized void acquire() {
+        inFlight++;
+    }
+
+    // Fin d'un message : ajuste la limite selon le résultat et la latence observée
+    public synchronized void release(boolean success) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+
+        if (success) {
+            if (latencyMs > latencyTargetMs) {
+                decrease(0.9, String.format("latence S3/SQS %.0f ms > %d ms", latencyMs, latencyTargetMs));
+            } else if (saturated && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized void pollSucceeded() {
+        pollFailures = 0;
+    }
+
+    // Poll en échec : délai à attendre avant le suivant (exponentiel, jitter complet)
+    public synchronized long pollFailed(Throwable error) {
+        if (isOverload(error)) {
+            decrease(0.5, "surcharge pendant le poll");
+        }
+        pollFailures++;
+        long maxDelay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(pollFailures - 1, 16));
+        return ThreadLocalRandom.current().nextLong(maxDelay + 1);
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes) {
+        attributes.putAttribute(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes) {
+        Long start = attributes.getAttribute(START_NANOS);
+        String operation = attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        int status = context.httpResponse().statusCode();
+
+        synchronized (this) {
+            if (isOverloadStatus(status)) {
+                overloadSignals++;
+                decrease(0.5, "HTTP " + status + " sur " + operation);
+            } else if (start != null && !IGNORED_LATENCY.contains(operation)) {
+                double ms = (System.nanoTime() - start) / 1e6;
+                latencyMs = (latencyMs < 0) ? ms : latencyMs + LATENCY_WEIGHT * (ms - latencyMs);
+            }
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes) {
+        // Throttling SQS (HTTP 400 + code d'erreur) : invisible au statut seul
+        Throwable error = context.exception();
+        if (error instanceof SdkServiceException
+                && ((SdkServiceException) error).isThrottlingException()
+                && !isOverloadStatus(((SdkServiceException) error).statusCode())) {
+            synchronized (this) {
+                overloadSignals++;
+                decrease(0.5, "throttling " + attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+            }
+        }
+    }
+
+    private void decrease(double factor, String reason) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < DECREASE_COOLDOWN_NANOS || limit <= minLimit) {
+            return;
+        }
+        lastDecrease = now;
+        int before = (int) limit;
+        limit = Math.max(minLimit, limit * factor);
+        if ((int) limit != before) {
+            System.out.println("Concurrence réduite : " + before + " → " + (int) limit + " (" + reason + ")");
+        }
+    }
+
+    private static boolean isOverloadStatus(int status) {
+        return status == 503 || status == 429 || status == 409 || status == 412;
+    }
+
+    static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SdkServiceException) {
+                SdkServiceException e = (SdkServiceException) t;
+                return e.isThrottlingException() || isOverloadStatus(e.statusCode());
+            }
+        }
+        return false;
+    }
+}
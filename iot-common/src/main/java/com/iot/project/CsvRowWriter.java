@@ -0,0 +1,169 @@
+package com.iot.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Écriture CSV en flux, sans String intermédiaire : les champs (texte, long, double) sont encodés
+// en UTF-8 directement dans un tampon d'octets réutilisé, vidé par un FileChannel.
+// Même format que CSVWriter d'opencsv (champs entre guillemets, guillemets doublés, fin de ligne \n) :
+// les fichiers sont relus par CSVReader sans changement, et identiques octet pour octet.
+public final class CsvRowWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = Integer.getInteger("iot.csv.writeBufferKb", 1024) * 1024;
+
+    // Pire cas d'un caractère encodé (guillemet doublé, ou paire de substitution -> 4 octets)
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private final FileChannel channel;
+    private final byte[] bytes = new byte[Math.max(BUFFER_SIZE, 64)];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private int position;
+    private boolean rowStarted;
+
+    // Chiffres d'un double : append(double) les écrit sans créer de String (même texte que String.valueOf)
+    private final StringBuilder digits = new StringBuilder(32);
+
+    public CsvRowWriter(String path) throws IOException {
+        this.channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    public CsvRowWriter row(String... fields) throws IOException {
+        for (String field : fields) {
+            field(field);
+        }
+        return endRow();
+    }
+
+    public CsvRowWriter field(CharSequence value) throws IOException {
+        return field(value, 0, value.length());
+    }
+
+    // Champ = value[from, to) : une partie de clé s'écrit sans substring
+    public CsvRowWriter field(CharSequence value, int from, int to) throws IOException {
+        startField();
+        for (int i = from; i < to; i++) {
+            if (position + MAX_CHAR_BYTES > bytes.length) {
+                flush();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    bytes[position++] = '"';
+                }
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | (cp >> 18));
+                bytes[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[position++] = '?'; // substitution isolée : comme l'encodeur UTF-8 du JDK
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return endField();
+    }
+
+    public CsvRowWriter field(long value) throws IOException {
+        startField();
+        appendLong(value);
+        return endField();
+    }
+
+    public CsvRowWriter field(double value) throws IOException {
+        // Entier de valeur absolue < 10^7 (paire vue une fois, écart-type nul) : String.valueOf écrit "<entier>.0".
+        // Double.compare écarte aussi -0.0 (écrit "-0.0") et NaN.
+        if (Math.abs(value) < 1e7 && Double.compare(value, (double) (long) value) == 0) {
+            startField();
+            appendLong((long) value);
+            if (position + 2 > bytes.length) {
+                flush();
+            }
+            bytes[position++] = '.';
+            bytes[position++] = '0';
+            return endField();
+        }
+        digits.setLength(0);
+        digits.append(value);
+        return field(digits, 0, digits.length());
+    }
+
+    public CsvRowWriter endRow() throws IOException {
+        if (position + 1 > bytes.length) {
+            flush();
+        }
+        bytes[position++] = '\n';
+        rowStarted = false;
+        return this;
+    }
+
+    private void appendLong(long value) throws IOException {
+        if (position + 20 > bytes.length) {
+            flush();
+        }
+        // Calcul en négatif : Long.MIN_VALUE n'a pas d'opposé
+        if (value < 0) {
+            bytes[position++] = '-';
+        } else {
+            value = -value;
+        }
+        int start = position;
+        do {
+            bytes[position++] = (byte) ('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+    }
+
+    private void startField() throws IOException {
+        if (position + 2 > bytes.length) {
+            flush();
+        }
+        if (rowStarted) {
+            bytes[position++] = ',';
+        }
+        rowStarted = true;
+        bytes[position++] = '"';
+    }
+
+    private CsvRowWriter endField() throws IOException {
+        if (position + 1 > bytes.length) {
+            flush();
+        }
+        bytes[position++] = '"';
+        return this;
+    }
+
+    private void flush() throws IOException {
+        buffer.clear().limit(position);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.iot.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Compteur de cardinalité HyperLogLog : 2^precision registres d'un octet.
+// Erreur relative typique 1.04 / sqrt(2^precision) (precision 8 : ~6.5 %, 256 octets).
+// Fusion = maximum registre par registre.
+public final class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Précision HyperLogLog hors bornes [4,16] : " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public void add(String value) {
+        long hash = hash64(value);
+        int index = (int) (hash >>> (64 - precision));
+        // Rang du premier bit à 1 dans les bits restants (+1)
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Précisions HyperLogLog différentes : "
+                    + precision + " / " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = alpha(m) * m * m / sum;
+        // Petites cardinalités : comptage linéaire, plus précis
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // Sérialisation creuse (index, rang) tant que peu de registres sont remplis :
+    // la plupart des SrcIP ne contactent que quelques DstIP.
+    public void writeTo(DataOutput out) throws IOException {
+        int nonZero = 0;
+        for (byte r : registers) {
+            if (r != 0) {
+                nonZero++;
+            }
+        }
+
+        out.writeByte(precision);
+        if (nonZero * 3 < registers.length) {
+            out.writeShort(nonZero);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    out.writeShort(i);
+                    out.writeByte(registers[i]);
+                }
+            }
+        } else {
+            out.writeShort(-1);
+            out.write(registers);
+        }
+    }
+
+    public static HyperLogLog readFrom(DataInput in) throws IOException {
+        HyperLogLog hll = new HyperLogLog(in.readByte());
+        int nonZero = in.readShort();
+        if (nonZero < 0) {
+            in.readFully(hll.registers);
+        } else {
+            for (int i = 0; i < nonZero; i++) {
+                hll.registers[in.readUnsignedShort()] = in.readByte();
+            }
+        }
+        return hll;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    // FNV-1a 64 bits puis finaliseur de MurmurHash3 (bonne dispersion des bits de poids fort)
+    private static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,222 @@
+package com.iot.project;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Tri de clés "champ|champ|…" dans l'ordre champ par champ (KEY_ORDER).
+// Trier directement 10^6 String coûte surtout en défauts de cache (chaque comparaison suit deux
+// pointeurs vers des objets dispersés dans le tas) : les PREFIX_CHARS premiers caractères de chaque clé
+// sont d'abord compactés dans des tableaux de long (un octet par caractère, ordre conservé), triés par
+// un quicksort qui ne parcourt que ces tableaux. Seules les clés de même préfixe compacté (IPv6 longues,
+// caractères hors Latin-1) sont ensuite départagées par comparaison complète.
+// Les clés sont lues par length / charAt : String, ou enregistrements d'une table off-heap.
+public abstract class KeySorter {
+
+    // Ordre des clés = ordre champ par champ (String.compareTo sur chaque champ) :
+    // le séparateur compte comme inférieur à tout caractère ("10.0.0.1|…" avant "10.0.0.10|…").
+    public static final Comparator<String> KEY_ORDER = KeySorter::compareKeys;
+
+    private static final int WORDS = 4;
+    private static final int PREFIX_CHARS = WORDS * 8;
+    private static final int INSERTION_SORT_MAX = 16;
+
+    // Codes d'un octet : fin de clé < séparateur < caractères (c + 2). Au-delà de MAX_PACKED_CHAR,
+    // le code STOP termine le préfixe : les clés concernées sont départagées par comparaison complète.
+    private static final int END = 0;
+    private static final int SEPARATOR = 1;
+    private static final int MAX_PACKED_CHAR = 0xFC;
+    private static final int STOP = 0xFF;
+
+    // État du tri en cours (vide entre deux tris)
+    private long[][] words = new long[WORDS][0];
+    private int[] items = new int[0];
+
+    protected abstract int length(int item);
+
+    protected abstract char charAt(int item, int index);
+
+    // Tri d'un tableau de clés : indices des clés dans l'ordre
+    public static int[] sortedOrder(String[] keys) {
+        return new KeySorter() {
+            @Override
+            protected int length(int item) {
+                return keys[item].length();
+            }
+
+            @Override
+            protected char charAt(int item, int index) {
+                return keys[item].charAt(index);
+            }
+        }.sortedOrder(keys.length);
+    }
+
+    // Indices 0..count-1 dans l'ordre de leurs clés
+    public int[] sortedOrder(int count) {
+        words = new long[WORDS][count];
+        items = new int[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = i;
+            pack(i);
+        }
+
+        quicksort(0, count);
+
+        // Préfixes égaux : comparaison complète des clés
+        for (int from = 0; from < count; ) {
+            int to = from + 1;
+            while (to < count && compareWords(from, to) == 0) {
+                to++;
+            }
+            if (to - from > 1) {
+                Integer[] ties = new Integer[to - from];
+                for (int i = from; i < to; i++) {
+                    ties[i - from] = items[i];
+                }
+                Arrays.sort(ties, this::compareItems);
+                for (int i = from; i < to; i++) {
+                    items[i] = ties[i - from];
+                }
+            }
+            from = to;
+        }
+
+        int[] order = items;
+        words = new long[WORDS][0];
+        items = new int[0];
+        return order;
+    }
+
+    private void pack(int item) {
+        int length = length(item);
+        boolean stopped = false;
+        int c = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = 0;
+            for (int b = 0; b < 8; b++, c++) {
+                int code;
+                if (stopped) {
+                    code = STOP;
+                } else if (c >= length) {
+                    code = END;
+                } else {
+                    char ch = charAt(item, c);
+                    if (ch == '|') {
+                        code = SEPARATOR;
+                    } else if (ch <= MAX_PACKED_CHAR) {
+                        code = ch + 2;
+                    } else {
+                        code = STOP;
+                        stopped = true;
+                    }
+                }
+                word = (word << 8) | code;
+            }
+            words[w][item] = word;
+        }
+    }
+
+    // Quicksort 3 voies sur les positions [from, to) ; les préfixes égaux restent groupés
+    private void quicksort(int from, int to) {
+        while (to - from > INSERTION_SORT_MAX) {
+            int mid = (from + to) >>> 1;
+            if (compareWords(mid, from) < 0) {
+                swap(mid, from);
+            }
+            if (compareWords(to - 1, from) < 0) {
+                swap(to - 1, from);
+            }
+            if (compareWords(to - 1, mid) < 0) {
+                swap(to - 1, mid);
+            }
+            swap(from, mid);
+
+            // [from, lt) < pivot, [lt, i) = pivot, (gt, to) > pivot
+            int lt = from;
+            int i = from + 1;
+            int gt = to - 1;
+            while (i <= gt) {
+                int cmp = compareWords(i, lt);
+                if (cmp < 0) {
+                    swap(lt++, i++);
+                } else if (cmp > 0) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+
+            // Récursion sur la plus petite partie : profondeur de pile en O(log n)
+            if (lt - from < to - gt - 1) {
+                quicksort(from, lt);
+                from = gt + 1;
+            } else {
+                quicksort(gt + 1, to);
+                to = lt;
+            }
+        }
+
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compareWords(j - 1, j) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int compareWords(int a, int b) {
+        for (long[] word : words) {
+            int cmp = Long.compareUnsigned(word[a], word[b]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private void swap(int a, int b) {
+        for (long[] word : words) {
+            long w = word[a];
+            word[a] = word[b];
+            word[b] = w;
+        }
+        int item = items[a];
+        items[a] = items[b];
+        items[b] = item;
+    }
+
+    private int compareItems(int a, int b) {
+        int lengthA = length(a);
+        int lengthB = length(b);
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int cmp = compareChars(charAt(a, i), charAt(b, i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    static int compareKeys(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            int cmp = compareChars(a.charAt(i), b.charAt(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static int compareChars(char a, char b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == '|') {
+            return -1;
+        }
+        if (b == '|') {
+            return 1;
+        }
+        return a - b;
+    }
+}
@@ -0,0 +1,121 @@
+package com.iot.project;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Signal de charge pour un autoscaler : profondeur de la file SQS face au débit observé du worker.
+// Publié toutes les iot.metrics.intervalMs dans les logs, et en JSON dans
+// s3://<iot.metrics.bucket>/metrics/<worker>/<instance>.json si ce bucket est défini.
+// workersNeeded = workers de ce débit nécessaires pour vider la file en iot.metrics.targetDrainSeconds
+// (-1 : file non vide mais aucun message traité sur la fenêtre, débit inconnu ou worker bloqué).
+public class LoadReporter {
+
+    private static final long INTERVAL_MS = Long.getLong("iot.metrics.intervalMs", 60_000L);
+    private static final String METRICS_BUCKET = System.getProperty("iot.metrics.bucket");
+    private static final long TARGET_DRAIN_SECONDS = Long.getLong("iot.metrics.targetDrainSeconds", 300L);
+
+    private final String worker;
+    private final String instance;
+    private final SqsClient sqs;
+    private final String queueUrl;
+    private final S3Client s3;
+    private final AdaptiveConcurrency concurrency;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private long windowStart = System.nanoTime();
+
+    public LoadReporter(String worker, SqsClient sqs, String queueUrl, S3Client s3, AdaptiveConcurrency concurrency) {
+        this.worker = worker;
+        this.instance = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.s3 = s3;
+        this.concurrency = concurrency;
+    }
+
+    // Messages traités (acquittés) et lignes produites / fusionnées
+    public void recordCompleted(int messageCount, long rowCount) {
+        messages.addAndGet(messageCount);
+        rows.addAndGet(rowCount);
+    }
+
+    public void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                report();
+            } catch (Exception e) {
+                System.err.println("Signal de charge non publié : " + e.getMessage());
+            }
+        }, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void report() {
+        long now = System.nanoTime();
+        double seconds = Math.max((now - windowStart) / 1e9, 1e-3);
+        windowStart = now;
+        double messagesPerSec = messages.getAndSet(0) / seconds;
+        double rowsPerSec = rows.getAndSet(0) / seconds;
+
+        Map<QueueAttributeName, String> attributes = sqs.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                .build()).attributes();
+        long visible = Long.parseLong(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0"));
+        long inFlightQueue = Long.parseLong(
+                attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0"));
+
+        long workersNeeded;
+        if (messagesPerSec > 0) {
+            workersNeeded = (long) Math.ceil((visible + inFlightQueue) / (messagesPerSec * TARGET_DRAIN_SECONDS));
+        } else {
+            workersNeeded = (visible > 0) ? -1 : 0;
+        }
+
+        int limit = concurrency.limit();
+        int inFlight = concurrency.inFlight();
+        long overloads = concurrency.drainOverloadSignals();
+
+        System.out.println(String.format(Locale.ROOT,
+                "[charge] %s : file %d (+%d en cours), %.2f msg/s, %.0f lignes/s, concurrence %d/%d, "
+                        + "latence %.0f ms, surcharges %d, workers nécessaires %d",
+                worker, visible, inFlightQueue, messagesPerSec, rowsPerSec, inFlight, limit,
+                concurrency.latencyMs(), overloads, workersNeeded));
+
+        if (METRICS_BUCKET != null) {
+            String json = String.format(Locale.ROOT,
+                    "{ \"worker\": \"%s\", \"instance\": \"%s\", \"timestamp\": \"%s\", "
+                            + "\"queueVisible\": %d, \"queueInFlight\": %d, "
+                            + "\"messagesPerSec\": %.4f, \"rowsPerSec\": %.1f, "
+                            + "\"concurrencyLimit\": %d, \"concurrencyInFlight\": %d, \"latencyMs\": %.1f, "
+                            + "\"overloadSignals\": %d, \"workersNeeded\": %d }",
+                    worker, instance, Instant.now(), visible, inFlightQueue, messagesPerSec, rowsPerSec,
+                    limit, inFlight, concurrency.latencyMs(), overloads, workersNeeded);
+            s3.putObject(PutObjectRequest.builder()
+                            .bucket(METRICS_BUCKET)
+                            .key("metrics/" + worker + "/" + instance + ".json")
+                            .contentType("application/json")
+                            .build(),
+                    RequestBody.fromString(json));
+        }
+    }
+}
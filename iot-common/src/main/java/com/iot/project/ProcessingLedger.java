@@ -0,0 +1,97 @@
+package com.iot.project;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Registre de traitement (idempotence) : un objet marqueur S3 par (clé, ETag) déjà traité.
+// Permet de court-circuiter en O(1) une redélivrance SQS (crash entre sendMessage et deleteMessage).
+public class ProcessingLedger {
+
+    private static final String LEDGER_PREFIX = "ledger/";
+
+    // Taille max du cache local des entrées déjà vues (évite un HEAD S3 pour les doublons récents)
+    private static final int LOCAL_CACHE_SIZE = 10_000;
+
+    private final S3Client s3;
+    private final String stage;
+
+    // Cache LRU borné "bucket/markerKey"
+    private final Set<String> seen = Collections.newSetFromMap(Collections.synchronizedMap(new LruMap()));
+
+    // stage : étape du pipeline ("summarize", "consolidate"), pour séparer les registres
+    public ProcessingLedger(S3Client s3, String stage) {
+        this.s3 = s3;
+        this.stage = stage;
+    }
+
+    public boolean isProcessed(String bucket, String key, String etag) {
+        String markerKey = markerKey(key, etag);
+        if (seen.contains(bucket + "/" + markerKey)) {
+            return true;
+        }
+
+        try {
+            s3.headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(markerKey)
+                    .build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+
+        seen.add(bucket + "/" + markerKey);
+        return true;
+    }
+
+    public void markProcessed(String bucket, String key, String etag) {
+        String markerKey = markerKey(key, etag);
+
+        PutObjectRequest putReq = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(markerKey)
+                .build();
+        s3.putObject(putReq, RequestBody.fromString(Instant.now().toString()));
+
+        seen.add(bucket + "/" + markerKey);
+    }
+
+    // Ex : ledger/summarize/raw/data-20221207.csv@9b2cf535f27731c974343645a3985328
+    //      ledger/consolidate/summaries/data-20221207-summary.csv@9b2cf535f27731c974343645a3985328
+    String markerKey(String key, String etag) {
+        return LEDGER_PREFIX + stage + "/" + key + "@" + normalizeEtag(etag);
+    }
+
+    // S3 renvoie l'ETag entre guillemets : on les retire pour les clés et les messages JSON
+    static String normalizeEtag(String etag) {
+        if (etag == null) {
+            return "";
+        }
+        return etag.replace("\"", "");
+    }
+
+    // Map en ordre d'accès qui oublie l'entrée la moins récente au-delà de LOCAL_CACHE_SIZE
+    private static final class LruMap extends LinkedHashMap<String, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > LOCAL_CACHE_SIZE;
+        }
+    }
+}
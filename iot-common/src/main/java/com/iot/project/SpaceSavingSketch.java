@@ -0,0 +1,207 @@
+package com.iot.project;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Top-K pondéré (algorithme Space-Saving) : au plus `capacity` compteurs.
+// Une clé absente remplace le plus petit compteur et hérite de sa valeur comme erreur max,
+// d'où count - error <= vraie valeur <= count. Fusionnable entre résumés.
+// Garantie : toute clé de poids > total / capacity est présente.
+//
+// Compteurs rangés dans un tas-min indexé : mise à jour en O(log capacity).
+public class SpaceSavingSketch {
+
+    public static class Counter {
+        final String key;
+        final long count;
+        final long error;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long error() {
+            return error;
+        }
+    }
+
+    private static final Comparator<Counter> BY_COUNT_DESC =
+            Comparator.comparingLong((Counter c) -> c.count).reversed().thenComparing(c -> c.key);
+
+    // Compteur du tas (position maintenue pour éviter une table de hachage à chaque échange)
+    private static final class Slot {
+        String key;
+        long count;
+        long error;
+        int pos;
+    }
+
+    private final int capacity;
+    private final Slot[] heap;
+    private int size;
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    public SpaceSavingSketch(int capacity) {
+        this.capacity = capacity;
+        this.heap = new Slot[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void add(String key, long weight) {
+        if (weight <= 0 || capacity == 0) {
+            return;
+        }
+
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            slot.count += weight;
+            siftDown(slot.pos);
+            return;
+        }
+
+        if (size < capacity) {
+            put(key, weight, 0);
+            return;
+        }
+
+        // Remplace le plus petit compteur (racine du tas)
+        Slot min = heap[0];
+        slots.remove(min.key);
+        min.key = key;
+        min.error = min.count;
+        min.count += weight;
+        slots.put(key, min);
+        siftDown(0);
+    }
+
+    // Fusion : une clé absente d'un côté y vaut au plus son plus petit compteur (si plein)
+    public void merge(SpaceSavingSketch other) {
+        long thisMin = minCountIfFull();
+        long otherMin = other.minCountIfFull();
+
+        Map<String, Counter> union = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Slot s = heap[i];
+            Slot o = other.slots.get(s.key);
+            union.put(s.key, (o != null)
+                    ? new Counter(s.key, s.count + o.count, s.error + o.error)
+                    : new Counter(s.key, s.count + otherMin, s.error + otherMin));
+        }
+        for (int i = 0; i < other.size; i++) {
+            Slot o = other.heap[i];
+            if (!union.containsKey(o.key)) {
+                union.put(o.key, new Counter(o.key, o.count + thisMin, o.error + thisMin));
+            }
+        }
+
+        List<Counter> all = new ArrayList<>(union.values());
+        all.sort(BY_COUNT_DESC);
+
+        slots.clear();
+        size = 0;
+        for (Counter c : all.subList(0, Math.min(capacity, all.size()))) {
+            put(c.key, c.count, c.error);
+        }
+    }
+
+    // Les k plus gros compteurs, par valeur décroissante
+    public List<Counter> top(int k) {
+        List<Counter> all = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            all.add(new Counter(heap[i].key, heap[i].count, heap[i].error));
+        }
+        all.sort(BY_COUNT_DESC);
+        return all.subList(0, Math.min(k, all.size()));
+    }
+
+    private long minCountIfFull() {
+        return (size < capacity || size == 0) ? 0 : heap[0].count;
+    }
+
+    private void put(String key, long count, long error) {
+        Slot slot = new Slot();
+        slot.key = key;
+        slot.count = count;
+        slot.error = error;
+        slot.pos = size;
+        heap[size] = slot;
+        slots.put(key, slot);
+        siftUp(size++);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= heap[i].count) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && heap[left].count < heap[smallest].count) {
+                smallest = left;
+            }
+            if (right < size && heap[right].count < heap[smallest].count) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        Slot tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+        heap[a].pos = a;
+        heap[b].pos = b;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(heap[i].key);
+            out.writeLong(heap[i].count);
+            out.writeLong(heap[i].error);
+        }
+    }
+
+    public static SpaceSavingSketch readFrom(DataInput in) throws IOException {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(in.readInt());
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            sketch.put(in.readUTF(), in.readLong(), in.readLong());
+        }
+        return sketch;
+    }
+}
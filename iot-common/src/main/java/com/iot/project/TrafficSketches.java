@@ -0,0 +1,104 @@
+package com.iot.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sketches compacts d'un résumé, fusionnables par le consolidateur :
+// - top-K des paires (SrcIP|DstIP) en paquets et en durée de flux (Space-Saving)
+// - nombre de DstIP distinctes par SrcIP (HyperLogLog)
+public class TrafficSketches {
+
+    private static final int MAGIC = 0x49534B31; // "ISK1"
+
+    private final SpaceSavingSketch topPackets;
+    private final SpaceSavingSketch topDuration;
+    private final int hllPrecision;
+    private final Map<String, HyperLogLog> fanout = new HashMap<>();
+
+    // capacity : nombre de compteurs par top-K (prendre ~10x le K interrogé)
+    public TrafficSketches(int capacity, int hllPrecision) {
+        this(new SpaceSavingSketch(capacity), new SpaceSavingSketch(capacity), hllPrecision);
+    }
+
+    private TrafficSketches(SpaceSavingSketch topPackets, SpaceSavingSketch topDuration, int hllPrecision) {
+        this.topPackets = topPackets;
+        this.topDuration = topDuration;
+        this.hllPrecision = hllPrecision;
+    }
+
+    // Sketches vides de mêmes paramètres (capacité, précision) que `other`
+    public static TrafficSketches emptyLike(TrafficSketches other) {
+        return new TrafficSketches(other.topPackets.capacity(), other.hllPrecision);
+    }
+
+    public void add(String srcIp, String dstIp, long flowDuration, long fwdPkt) {
+        String pair = srcIp + "|" + dstIp;
+        topPackets.add(pair, fwdPkt);
+        topDuration.add(pair, flowDuration);
+        fanout.computeIfAbsent(srcIp, k -> new HyperLogLog(hllPrecision)).add(dstIp);
+    }
+
+    public void merge(TrafficSketches other) {
+        topPackets.merge(other.topPackets);
+        topDuration.merge(other.topDuration);
+        for (Map.Entry<String, HyperLogLog> e : other.fanout.entrySet()) {
+            fanout.computeIfAbsent(e.getKey(), k -> new HyperLogLog(e.getValue().precision()))
+                    .merge(e.getValue());
+        }
+    }
+
+    // K paires les plus lourdes en paquets, décroissant
+    public List<SpaceSavingSketch.Counter> topPackets(int k) {
+        return topPackets.top(k);
+    }
+
+    // K paires les plus lourdes en durée de flux, décroissant
+    public List<SpaceSavingSketch.Counter> topDuration(int k) {
+        return topDuration.top(k);
+    }
+
+    public Map<String, HyperLogLog> fanout() {
+        return Collections.unmodifiableMap(fanout);
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            topPackets.writeTo(out);
+            topDuration.writeTo(out);
+            out.writeByte(hllPrecision);
+            out.writeInt(fanout.size());
+            for (Map.Entry<String, HyperLogLog> e : fanout.entrySet()) {
+                out.writeUTF(e.getKey());
+                e.getValue().writeTo(out);
+            }
+        }
+    }
+
+    public static TrafficSketches readFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Fichier de sketches invalide : " + file);
+            }
+            SpaceSavingSketch topPackets = SpaceSavingSketch.readFrom(in);
+            SpaceSavingSketch topDuration = SpaceSavingSketch.readFrom(in);
+            TrafficSketches sketches = new TrafficSketches(topPackets, topDuration, in.readByte());
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                sketches.fanout.put(in.readUTF(), HyperLogLog.readFrom(in));
+            }
+            return sketches;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.iot.project;
+
+import com.opencsv.CSVWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+// CsvRowWriter doit produire les mêmes octets que CSVWriter d'opencsv (format historique des fichiers)
+class CsvRowWriterTest {
+
+    private static final String[] TEXTS = {
+        "", "10.0.4.32", "fe80::1", "2022-12-07", "a,b", "guillemet \" au milieu", "\"\"", "ligne\nsuivante",
+        "été", "北京", "😀 emoji", "\uD800 isolée", "fin \uDBFF", "tab\tcr\r"
+    };
+    private static final long[] LONGS = {0, 1, -1, 42, 1_000_000_007L, Long.MAX_VALUE, Long.MIN_VALUE};
+    private static final double[] DOUBLES = {
+        0.0, -0.0, 1.0, -3.0, 9_999_999.0, 1e7, 123.456, 1e-5, 0.1 + 0.2, -2.5e-300, Double.MAX_VALUE,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    @Test
+    void rowsAreByteIdenticalToOpencsv(@TempDir Path dir) throws Exception {
+        // Assez de lignes pour dépasser le tampon (1 Mo) et couper des champs entre deux vidages
+        List<Object[]> rows = new ArrayList<>();
+        Random random = new Random(5);
+        rows.add(new Object[]{"Date", "SrcIP", "DstIP", "Count"});
+        rows.add(TEXTS.clone());
+        rows.add(box(LONGS));
+        rows.add(box(DOUBLES));
+        for (int i = 0; i < 40_000; i++) {
+            rows.add(new Object[]{
+                TEXTS[random.nextInt(TEXTS.length)],
+                LONGS[random.nextInt(LONGS.length)],
+                random.nextLong(),
+                DOUBLES[random.nextInt(DOUBLES.length)],
+                random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10),
+                (double) random.nextInt(20_000_000)
+            });
+        }
+
+        Path ours = dir.resolve("ours.csv");
+        try (CsvRowWriter writer = new CsvRowWriter(ours.toString())) {
+            for (Object[] row : rows) {
+                for (Object value : row) {
+                    if (value instanceof Long) {
+                        writer.field((long) value);
+                    } else if (value instanceof Double) {
+                        writer.field((double) value);
+                    } else {
+                        writer.field((String) value);
+                    }
+                }
+                writer.endRow();
+            }
+        }
+
+        Path reference = dir.resolve("opencsv.csv");
+        try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(Files.newOutputStream(reference),
+                StandardCharsets.UTF_8))) {
+            for (Object[] row : rows) {
+                String[] fields = new String[row.length];
+                for (int i = 0; i < row.length; i++) {
+                    fields[i] = String.valueOf(row[i]);
+                }
+                writer.writeNext(fields);
+            }
+        }
+
+        assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(ours));
+    }
+
+    private static Object[] box(long[] values) {
+        Object[] boxed = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+
+    private static Object[] box(double[] values) {
+        Object[] boxed = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+}
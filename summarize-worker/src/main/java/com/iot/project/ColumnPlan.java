@@ -0,0 +1,217 @@
+package com.iot.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Plan de colonnes d'un fichier brut, construit une fois à partir de son en-tête :
+// où lire Timestamp, Src IP, Dst IP et chaque métrique sommée, quel que soit le nom exact
+// (versions de CICFlowMeter) ou l'ordre des colonnes. Les noms sont comparés normalisés
+// (casse, espaces et ponctuation ignorés) : "Src IP", "src_ip", "SrcIP" sont équivalents.
+//
+// Alias supplémentaires : -Diot.columns.aliases="Src IP=IPV4_SRC_ADDR;Dst IP=IPV4_DST_ADDR"
+// Métriques supplémentaires (colonne de sortie = alias|alias) :
+//   -Diot.summary.extraMetrics="TotalBwdPkt=Tot Bwd Pkts|Total Backward Packets;TotalFlowBytesPerSec=Flow Byts/s|Flow Bytes/s"
+public class ColumnPlan {
+
+    // Colonnes de la clé de regroupement (obligatoires)
+    static final String TIMESTAMP = "Timestamp";
+    static final String SRC_IP = "Src IP";
+    static final String DST_IP = "Dst IP";
+
+    // Index des métriques historiques dans les tableaux de totaux
+    static final int FLOW_DURATION = 0;
+    static final int FWD_PKT = 1;
+
+    // Métriques supplémentaires (index >= HISTORIC_METRICS) : souvent décimales (Flow Byts/s).
+    // Leur total est une somme de doubles, portée dans le tableau de longs sous forme de bits IEEE
+    // (0L = 0.0), et arrondie une seule fois à l'émission du résumé.
+    static final int HISTORIC_METRICS = 2;
+
+    // Nom logique -> alias connus (le nom logique compris)
+    private static final Map<String, List<String>> ALIASES = new HashMap<>();
+
+    // Colonne de sortie du résumé -> nom logique de la colonne brute, dans l'ordre des totaux
+    private static final Map<String, String> METRICS = new LinkedHashMap<>();
+
+    static {
+        alias(TIMESTAMP, "Timestamp", "Flow Start", "Start Time");
+        alias(SRC_IP, "Src IP", "Source IP", "Src Addr");
+        alias(DST_IP, "Dst IP", "Destination IP", "Dst Addr");
+        alias("Flow Duration", "Flow Duration", "Flow Dur");
+        alias("Tot Fwd Pkts", "Tot Fwd Pkts", "Total Fwd Packets", "Total Fwd Packet", "Tot Fwd Pkt");
+
+        METRICS.put("TotalFlowDuration", "Flow Duration");
+        METRICS.put("TotalFwdPkt", "Tot Fwd Pkts");
+
+        parseMapping(System.getProperty("iot.columns.aliases", ""), false);
+        parseMapping(System.getProperty("iot.summary.extraMetrics", ""), true);
+    }
+
+    private final int[] sourceColumns;
+
+    private ColumnPlan(int[] sourceColumns) {
+        this.sourceColumns = sourceColumns;
+    }
+
+    // Colonnes de sortie des métriques (en-tête du résumé après Date,SrcIP,DstIP)
+    public static List<String> metricNames() {
+        return new ArrayList<>(METRICS.keySet());
+    }
+
+    public static int metricCount() {
+        return METRICS.size();
+    }
+
+    // Résout l'en-tête. Colonne de clé introuvable = fichier rejeté ; métrique introuvable = 0.
+    // Deux colonnes de même nom normalisé (ex : "Fwd Header Length" en double dans CIC-IDS2017) :
+    // la première est retenue, avec un avertissement si le plan la lit.
+    public static ColumnPlan forHeader(String[] header) throws IOException {
+        Map<String, Integer> byName = new HashMap<>();
+        Map<String, List<Integer>> collisions = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            String name = normalize(header[i]);
+            Integer first = byName.putIfAbsent(name, i);
+            if (first != null) {
+                collisions.computeIfAbsent(name, k -> new ArrayList<>(List.of(first))).add(i);
+            }
+        }
+
+        List<String> logical = new ArrayList<>(List.of(TIMESTAMP, SRC_IP, DST_IP));
+        logical.addAll(METRICS.values());
+
+        int[] sourceColumns = new int[logical.size()];
+        List<String> missingKeys = new ArrayList<>();
+        List<String> missingMetrics = new ArrayList<>();
+        for (int i = 0; i < logical.size(); i++) {
+            sourceColumns[i] = resolve(byName, logical.get(i));
+            if (sourceColumns[i] == -1) {
+                (i < 3 ? missingKeys : missingMetrics).add(logical.get(i));
+            } else {
+                List<Integer> same = collisions.get(normalize(header[sourceColumns[i]]));
+                if (same != null) {
+                    List<String> columns = new ArrayList<>();
+                    for (int index : same) {
+                        columns.add("'" + header[index] + "' (n°" + (index + 1) + ")");
+                    }
+                    System.out.println("Attention : colonnes identiques une fois normalisées " + columns
+                            + ", la première est lue pour " + logical.get(i));
+                }
+            }
+        }
+
+        if (!missingKeys.isEmpty()) {
+            throw new IOException("Colonnes nécessaires introuvables dans le CSV : " + missingKeys
+                    + " (alias : -Diot.columns.aliases)");
+        }
+        if (!missingMetrics.isEmpty()) {
+            System.out.println("Attention : métriques absentes de ce fichier (comptées à 0) : " + missingMetrics);
+        }
+        return new ColumnPlan(sourceColumns);
+    }
+
+    // Index des colonnes brutes à lire : Timestamp, Src IP, Dst IP puis les métriques (-1 = absente)
+    public int[] sourceColumns() {
+        return sourceColumns.clone();
+    }
+
+    static boolean isDecimal(int metric) {
+        return metric >= HISTORIC_METRICS;
+    }
+
+    // Valeur brute -> valeur à sommer. Vide / invalide / NaN / Infinity = 0.
+    // Métriques historiques : entiers (une valeur décimale est arrondie) ; supplémentaires : bits du double.
+    static long parse(int metric, String value) {
+        if (isDecimal(metric)) {
+            return Double.doubleToRawLongBits(parseDouble(value));
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Math.round(parseDouble(value));
+        }
+    }
+
+    // totals[m] += values[m], métrique par métrique
+    static void addInto(long[] totals, long[] values) {
+        for (int m = 0; m < totals.length; m++) {
+            if (isDecimal(m)) {
+                totals[m] = Double.doubleToRawLongBits(
+                        Double.longBitsToDouble(totals[m]) + Double.longBitsToDouble(values[m]));
+            } else {
+                totals[m] += values[m];
+            }
+        }
+    }
+
+    // Total émis dans le résumé : somme exacte arrondie une seule fois pour les métriques décimales
+    static long emitted(int metric, long total) {
+        return isDecimal(metric) ? Math.round(Double.longBitsToDouble(total)) : total;
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            double d = Double.parseDouble(value);
+            return Double.isFinite(d) ? d : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int resolve(Map<String, Integer> byName, String logicalName) {
+        for (String alias : ALIASES.getOrDefault(logicalName, List.of(logicalName))) {
+            Integer index = byName.get(normalize(alias));
+            if (index != null) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static void alias(String logicalName, String... aliases) {
+        List<String> list = ALIASES.computeIfAbsent(logicalName, k -> new ArrayList<>(List.of(k)));
+        list.addAll(Arrays.asList(aliases));
+    }
+
+    // "nom=alias|alias;nom=alias" ; pour les métriques, nom = colonne de sortie du résumé
+    private static void parseMapping(String mapping, boolean metrics) {
+        for (String entry : mapping.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Entrée de mapping de colonnes invalide : '" + entry + "'");
+            }
+
+            String name = entry.substring(0, eq).trim();
+            String[] aliases = entry.substring(eq + 1).split("\\|");
+            if (metrics) {
+                String logicalName = aliases[0].trim();
+                METRICS.put(name, logicalName);
+                alias(logicalName, aliases);
+            } else {
+                alias(name, aliases);
+            }
+        }
+    }
+
+    // Casse, espaces, ponctuation et BOM ignorés
+    static String normalize(String columnName) {
+        StringBuilder sb = new StringBuilder(columnName.length());
+        for (int i = 0; i < columnName.length(); i++) {
+            char c = columnName.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
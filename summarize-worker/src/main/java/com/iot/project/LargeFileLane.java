@@ -0,0 +1,69 @@
+package com.iot.project;
+
+import java.util.ArrayDeque;
+
+// Admission dans la voie "gros fichiers" : au plus `slots` fichiers en cours, les suivants attendent
+// localement dans l'ordre d'arrivée (leur message reste invisible grâce au heartbeat). Un message
+// n'est jamais rendu à la file faute de place : chaque réception incrémente ApproximateReceiveCount
+// et finirait par l'envoyer en DLQ sans qu'il ait été traité.
+// Au-delà de `backlog` fichiers en attente, le worker cesse de recevoir (awaitRoom) au lieu
+// d'accaparer les messages que d'autres workers pourraient traiter.
+final class LargeFileLane<T> {
+
+    private final int slots;
+    private final int backlog;
+
+    private int running;
+    private final ArrayDeque<T> waiting = new ArrayDeque<>();
+
+    LargeFileLane(int slots, int backlog) {
+        if (slots < 1 || backlog < 1) {
+            throw new IllegalArgumentException("slots >= 1 et backlog >= 1 requis : " + slots + ", " + backlog);
+        }
+        this.slots = slots;
+        this.backlog = backlog;
+    }
+
+    // true : une place est prise, le fichier démarre tout de suite ; false : il attend son tour
+    // (un lot reçu n'est jamais refusé, même s'il dépasse le backlog)
+    synchronized boolean submit(T job) {
+        if (running < slots) {
+            running++;
+            return true;
+        }
+        waiting.add(job);
+        return false;
+    }
+
+    // Fin d'un fichier : sa place passe au plus ancien en attente (à démarrer par l'appelant),
+    // null si personne n'attend (la place est libérée)
+    synchronized T complete() {
+        T next = waiting.poll();
+        if (next == null) {
+            running--;
+        }
+        notifyAll();
+        return next;
+    }
+
+    // Attend (au plus timeoutMs) que le backlog ait de la place ; false si toujours plein
+    synchronized boolean awaitRoom(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (waiting.size() >= backlog) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+}
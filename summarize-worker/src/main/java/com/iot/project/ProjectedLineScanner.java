@@ -0,0 +1,148 @@
+package com.iot.project;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Lecteur CSV à projection : ne construit une String que pour les colonnes demandées.
+// Les autres champs sont sautés caractère par caractère (guillemets respectés) et la fin de ligne
+// après la dernière colonne utile n'est pas parcourue : sur les captures à 80+ colonnes,
+// seules quelques-unes sont découpées.
+public class ProjectedLineScanner implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    // slotOf[colonne brute] = position dans le tableau renvoyé, -1 si la colonne n'est pas lue
+    private int[] slotOf = new int[0];
+    private int lastColumn = -1;
+    // Nombre de colonnes projetées (taille minimale du tableau passé à next)
+    private int projected;
+
+    public ProjectedLineScanner(Reader in) {
+        this.reader = new BufferedReader(in, BUFFER_SIZE);
+    }
+
+    // En-tête complet (toutes les colonnes), tableau vide si le fichier est vide
+    public String[] readHeader() throws IOException {
+        String line = readRecord();
+        if (line == null) {
+            return new String[0];
+        }
+
+        List<String> fields = new ArrayList<>();
+        int pos = 0;
+        while (pos <= line.length()) {
+            int end = fieldEnd(line, pos);
+            fields.add(unquote(line, pos, end));
+            pos = end + 1;
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    // Colonnes à lire par next(), dans l'ordre voulu (-1 = colonne absente, valeur "")
+    public void project(int[] columns) {
+        projected = columns.length;
+        lastColumn = Arrays.stream(columns).max().orElse(-1);
+        slotOf = new int[lastColumn + 1];
+        Arrays.fill(slotOf, -1);
+        for (int slot = 0; slot < columns.length; slot++) {
+            if (columns[slot] >= 0) {
+                slotOf[columns[slot]] = slot;
+            }
+        }
+    }
+
+    // Valeurs projetées de la ligne suivante, écrites dans values (tableau de l'appelant, réutilisable
+    // d'une ligne à l'autre, au moins une case par colonne projetée) ; false en fin de fichier
+    public boolean next(String[] values) throws IOException {
+        if (values.length < projected) {
+            throw new IllegalArgumentException("Tableau de " + values.length + " valeurs pour "
+                    + projected + " colonnes projetées");
+        }
+        String line = readRecord();
+        while (line != null && line.isEmpty()) {
+            line = readRecord(); // lignes vides ignorées
+        }
+        if (line == null) {
+            return false;
+        }
+
+        Arrays.fill(values, "");
+        int pos = 0;
+        for (int column = 0; column <= lastColumn && pos <= line.length(); column++) {
+            int end = fieldEnd(line, pos);
+            int slot = slotOf[column];
+            if (slot >= 0) {
+                values[slot] = unquote(line, pos, end);
+            }
+            pos = end + 1;
+        }
+        return true;
+    }
+
+    // Une ligne logique : un champ entre guillemets peut contenir des retours à la ligne
+    private String readRecord() throws IOException {
+        String line = reader.readLine();
+        if (line == null || line.indexOf('"') < 0) {
+            return line;
+        }
+
+        StringBuilder record = new StringBuilder(line);
+        while (quoteCount(record) % 2 != 0) {
+            String more = reader.readLine();
+            if (more == null) {
+                break;
+            }
+            record.append('\n').append(more);
+        }
+        return record.toString();
+    }
+
+    // Position de la virgule qui termine le champ commençant en pos (ou fin de ligne)
+    private static int fieldEnd(String line, int pos) {
+        boolean quoted = false;
+        for (int i = pos; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                return i;
+            }
+        }
+        return line.length();
+    }
+
+    // Champ [start, end) : guillemets englobants retirés, "" -> ", espaces ignorés comme le faisait trim()
+    private static String unquote(String line, int start, int end) {
+        while (start < end && line.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"') {
+            return line.substring(start + 1, end - 1).replace("\"\"", "\"");
+        }
+        return line.substring(start, end);
+    }
+
+    private static int quoteCount(CharSequence s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '"') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,208 @@
+package com.iot.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Agrégation (SrcIP|DstIP|Date) -> sommes à mémoire bornée.
+// Tant que le budget n'est pas dépassé, tout reste dans la HashMap (chemin historique).
+// Au-delà, la map est triée par clé et déversée dans un fichier "run" local, puis vidée ;
+// à la fin, les runs sont fusionnés (k-way merge) en un flux trié, clé par clé.
+// Dans les deux cas, les groupes sont émis dans l'ordre KeySorter.KEY_ORDER.
+public class SpillingAggregator {
+
+    // Estimation de l'empreinte d'un groupe hors caractères de la clé et valeurs :
+    // String + byte[] (~40 o), long[] (~16 o + 8 o par métrique), HashMap.Node (~32 o), case de table (~11 o)
+    private static final long GROUP_OVERHEAD_BYTES = 99;
+
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final long memoryBudgetBytes;
+    // Nombre de métriques sommées par groupe (taille des tableaux de totaux)
+    private final int metricCount;
+    private final Map<String, long[]> aggregates = new HashMap<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long estimatedBytes;
+
+    // memoryBudgetBytes <= 0 : pas de limite (tout en mémoire)
+    public SpillingAggregator(long memoryBudgetBytes, int metricCount) {
+        this.memoryBudgetBytes = memoryBudgetBytes > 0 ? memoryBudgetBytes : Long.MAX_VALUE;
+        this.metricCount = metricCount;
+    }
+
+    // Ajoute les valeurs d'une ligne (une par métrique) aux totaux du groupe
+    public void add(String key, long[] values) throws IOException {
+        long[] totals = aggregates.get(key);
+        if (totals == null) {
+            totals = new long[metricCount];
+            aggregates.put(key, totals);
+            estimatedBytes += GROUP_OVERHEAD_BYTES + 8L * metricCount + key.length();
+        }
+
+        ColumnPlan.addInto(totals, values);
+
+        if (estimatedBytes > memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    // Nombre de groupes en mémoire + nombre de runs sur disque (pour les logs)
+    public int groupsInMemory() {
+        return aggregates.size();
+    }
+
+    public int spilledRuns() {
+        return runs.size();
+    }
+
+    // Point de reprise : déverse la map en mémoire et renvoie tous les runs, dans l'ordre de création.
+    // Un run n'est jamais modifié : seuls ceux apparus depuis le point précédent sont à sauvegarder.
+    public List<Path> checkpointRuns() throws IOException {
+        spill();
+        return new ArrayList<>(runs);
+    }
+
+    // Reprise : runs d'un point de reprise (copies locales), fusionnés avec le reste à l'émission
+    public void adoptRuns(List<Path> restored) {
+        runs.addAll(restored);
+    }
+
+    // Émet tous les groupes vers le writer, triés par clé, puis supprime les runs
+    public void emit(SummaryWriter writer) throws IOException {
+        try {
+            if (runs.isEmpty()) {
+                String[] keys = new String[aggregates.size()];
+                long[][] totals = new long[keys.length][];
+                int n = 0;
+                for (Map.Entry<String, long[]> entry : aggregates.entrySet()) {
+                    keys[n] = entry.getKey();
+                    totals[n++] = entry.getValue();
+                }
+                for (int i : KeySorter.sortedOrder(keys)) {
+                    writer.write(keys[i], totals[i]);
+                }
+                return;
+            }
+
+            spill();
+            mergeRuns(writer);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+        }
+    }
+
+    // Run = entrées triées par clé : (UTF clé, un long par métrique)*, précédées de leur nombre
+    private void spill() throws IOException {
+        if (aggregates.isEmpty()) {
+            return;
+        }
+
+        String[] keys = aggregates.keySet().toArray(new String[0]);
+
+        Path run = Files.createTempFile("summarize-run-", ".bin");
+        runs.add(run);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+            out.writeInt(keys.length);
+            for (int i : KeySorter.sortedOrder(keys)) {
+                out.writeUTF(keys[i]);
+                for (long total : aggregates.get(keys[i])) {
+                    out.writeLong(total);
+                }
+            }
+        }
+
+        System.out.println("Déversement sur disque : " + keys.length + " groupes → " + run);
+        aggregates.clear();
+        estimatedBytes = 0;
+    }
+
+    // k-way merge : une tête de lecture par run, les clés égales sont additionnées
+    private void mergeRuns(SummaryWriter writer) throws IOException {
+        PriorityQueue<RunCursor> heap = new PriorityQueue<>((a, b) -> KeySorter.KEY_ORDER.compare(a.key, b.key));
+        List<RunCursor> cursors = new ArrayList<>();
+
+        try {
+            for (Path run : runs) {
+                RunCursor cursor = RunCursor.open(run, metricCount);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+
+            while (!heap.isEmpty()) {
+                RunCursor head = heap.poll();
+                String key = head.key;
+                long[] totals = head.totals.clone();
+                if (head.advance()) {
+                    heap.add(head);
+                }
+
+                while (!heap.isEmpty() && heap.peek().key.equals(key)) {
+                    RunCursor same = heap.poll();
+                    ColumnPlan.addInto(totals, same.totals);
+                    if (same.advance()) {
+                        heap.add(same);
+                    }
+                }
+
+                writer.write(key, totals);
+            }
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.in.close();
+            }
+        }
+    }
+
+    private static final class RunCursor {
+        final DataInputStream in;
+        int remaining;
+        // Clé de l'entrée courante ("" avant le premier advance)
+        String key = "";
+        final long[] totals;
+
+        private RunCursor(DataInputStream in, int remaining, int metricCount) {
+            this.in = in;
+            this.remaining = remaining;
+            this.totals = new long[metricCount];
+        }
+
+        // Ouvre un run et lit son nombre d'entrées ; le flux est fermé si cette lecture échoue
+        static RunCursor open(Path run, int metricCount) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+            try {
+                return new RunCursor(in, in.readInt(), metricCount);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            key = in.readUTF();
+            for (int m = 0; m < totals.length; m++) {
+                totals[m] = in.readLong();
+            }
+            return true;
+        }
+    }
+}
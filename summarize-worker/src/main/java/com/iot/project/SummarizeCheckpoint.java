@@ -0,0 +1,351 @@
+package com.iot.project;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Points de reprise d'un résumé long : octet atteint dans le fichier brut + agrégat partiel.
+// L'agrégat est sauvegardé sous forme de runs triés (format SpillingAggregator). Un run n'est jamais
+// réécrit : chaque point n'écrit que les runs apparus depuis le précédent, puis le manifeste
+// (offset, lignes, liste des runs), écrit en dernier, qui seul fait foi.
+//
+// Stockage : s3://<bucket>/checkpoints/summarize/<clé brute>@<etag>/ (reprise possible sur un autre
+// worker) ou un répertoire local. L'ETag dans le chemin : un fichier modifié repart de zéro.
+//
+// Deux workers sur le même fichier (message redélivré pendant le traitement) : les runs portent
+// l'identifiant de leur auteur (run-<owner>-NNNN.bin) et le manifeste n'est remplacé que s'il est
+// toujours celui lu ou écrit en dernier (If-Match). Le perdant cesse d'écrire des points de reprise
+// et ne supprime rien de ce que le manifeste du gagnant référence.
+public class SummarizeCheckpoint {
+
+    private static final String MANIFEST = "manifest.txt";
+
+    // Manifeste lu, avec sa version (ETag S3, contenu en local)
+    private static class Manifest {
+        final String text;
+        final String version;
+
+        Manifest(String text, String version) {
+            this.text = text;
+            this.version = version;
+        }
+    }
+
+    // Stockage des fichiers d'un point de reprise (par nom)
+    private interface Store {
+        void put(String name, Path file) throws IOException;
+
+        // Écrit le manifeste si sa version est toujours expectedVersion (null = absent) ;
+        // renvoie la nouvelle version, null si un autre worker l'a remplacé entre-temps
+        String putManifest(String text, String expectedVersion) throws IOException;
+
+        // null si absent
+        Manifest getManifest() throws IOException;
+
+        void get(String name, Path target) throws IOException;
+
+        void delete(List<String> names) throws IOException;
+    }
+
+    // Reprise : offset de la prochaine ligne à lire, lignes déjà agrégées, runs copiés localement
+    public static class Resume {
+        final long offset;
+        final long lineCount;
+        final List<Path> runs;
+
+        Resume(long offset, long lineCount, List<Path> runs) {
+            this.offset = offset;
+            this.lineCount = lineCount;
+            this.runs = runs;
+        }
+    }
+
+    private final Store store;
+    private final String description;
+    private final long intervalMs;
+    // Préfixe des runs écrits par cette instance
+    private final String owner = UUID.randomUUID().toString().substring(0, 8);
+    private long lastSave = System.currentTimeMillis();
+    private final List<String> storedRuns = new ArrayList<>();
+    // Version du dernier manifeste lu ou écrit (null = aucun) : à supprimer après le succès
+    private String manifestVersion;
+    // Manifeste remplacé par un autre worker : plus d'écriture ni de suppression
+    private boolean lost;
+
+    private SummarizeCheckpoint(Store store, String description, long intervalMs) {
+        this.store = store;
+        this.description = description;
+        this.intervalMs = intervalMs;
+    }
+
+    public static SummarizeCheckpoint inS3(S3Client s3, String bucket, String rawKey, String rawEtag,
+                                           long intervalMs) {
+        String prefix = "checkpoints/summarize/" + rawKey + "@" + rawEtag + "/";
+        Store store = new Store() {
+            @Override
+            public void put(String name, Path file) {
+                s3.putObject(PutObjectRequest.builder().bucket(bucket).key(prefix + name).build(), file);
+            }
+
+            @Override
+            public String putManifest(String text, String expectedVersion) {
+                PutObjectRequest.Builder putReq = PutObjectRequest.builder().bucket(bucket).key(prefix + MANIFEST);
+                if (expectedVersion != null) {
+                    putReq.ifMatch(expectedVersion);
+                } else {
+                    putReq.ifNoneMatch("*");
+                }
+                try {
+                    return s3.putObject(putReq.build(), RequestBody.fromString(text)).eTag();
+                } catch (S3Exception e) {
+                    if (e.statusCode() == 412 || e.statusCode() == 409) {
+                        return null;
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public Manifest getManifest() {
+                try {
+                    ResponseBytes<GetObjectResponse> manifest = s3.getObjectAsBytes(
+                            GetObjectRequest.builder().bucket(bucket).key(prefix + MANIFEST).build());
+                    return new Manifest(manifest.asUtf8String(), manifest.response().eTag());
+                } catch (NoSuchKeyException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            public void get(String name, Path target) throws IOException {
+                // toFile() refuse d'écraser un fichier existant
+                Files.deleteIfExists(target);
+                s3.getObject(GetObjectRequest.builder().bucket(bucket).key(prefix + name).build(),
+                        ResponseTransformer.toFile(target));
+            }
+
+            @Override
+            public void delete(List<String> names) {
+                List<ObjectIdentifier> ids = new ArrayList<>();
+                for (String name : names) {
+                    ids.add(ObjectIdentifier.builder().key(prefix + name).build());
+                }
+                for (int from = 0; from < ids.size(); from += 1000) {
+                    s3.deleteObjects(DeleteObjectsRequest.builder()
+                            .bucket(bucket)
+                            .delete(Delete.builder().objects(ids.subList(from, Math.min(from + 1000, ids.size()))).build())
+                            .build());
+                }
+            }
+        };
+        return new SummarizeCheckpoint(store, "s3://" + bucket + "/" + prefix, intervalMs);
+    }
+
+    public static SummarizeCheckpoint inDirectory(Path baseDir, String rawKey, String rawEtag, long intervalMs) {
+        Path dir = baseDir.resolve((rawKey + "@" + rawEtag).replaceAll("[^A-Za-z0-9._@-]", "_"));
+        Store store = new Store() {
+            @Override
+            public void put(String name, Path file) throws IOException {
+                Files.createDirectories(dir);
+                Files.copy(file, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public String putManifest(String text, String expectedVersion) throws IOException {
+                // Comparaison puis remplacement sous verrou (workers de la même machine) ;
+                // écriture atomique : un manifeste à moitié écrit ne doit jamais être lu
+                Files.createDirectories(dir);
+                try (FileChannel lockFile = FileChannel.open(dir.resolve(MANIFEST + ".lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    lockFile.lock(); // libéré à la fermeture du canal
+                    Manifest current = getManifest();
+                    String currentVersion = (current == null) ? null : current.version;
+                    if (expectedVersion == null ? currentVersion != null : !expectedVersion.equals(currentVersion)) {
+                        return null;
+                    }
+                    Path tmp = dir.resolve(MANIFEST + ".tmp");
+                    Files.writeString(tmp, text);
+                    Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    return text;
+                }
+            }
+
+            @Override
+            public Manifest getManifest() throws IOException {
+                Path file = dir.resolve(MANIFEST);
+                if (!Files.exists(file)) {
+                    return null;
+                }
+                String text = Files.readString(file);
+                return new Manifest(text, text);
+            }
+
+            @Override
+            public void get(String name, Path target) throws IOException {
+                Files.copy(dir.resolve(name), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public void delete(List<String> names) throws IOException {
+                for (String name : names) {
+                    Files.deleteIfExists(dir.resolve(name));
+                }
+                if (names.contains(MANIFEST)) {
+                    Files.deleteIfExists(dir.resolve(MANIFEST + ".lock"));
+                }
+                try {
+                    Files.deleteIfExists(dir);
+                } catch (DirectoryNotEmptyException ignored) {
+                    // runs supprimés au prochain appel
+                }
+            }
+        };
+        return new SummarizeCheckpoint(store, dir.toString(), intervalMs);
+    }
+
+    // Dernier point de reprise valable (runs copiés en fichiers temporaires), null si aucun
+    public Resume resume() throws IOException {
+        Manifest stored = store.getManifest();
+        if (stored == null) {
+            return null;
+        }
+        // Le prochain point remplace ce manifeste (même invalide) à condition qu'il n'ait pas changé
+        manifestVersion = stored.version;
+        String manifest = stored.text;
+
+        long offset = -1;
+        long lineCount = 0;
+        String metrics = null;
+        List<String> runNames = new ArrayList<>();
+        for (String line : manifest.split("\n")) {
+            int eq = line.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String value = line.substring(eq + 1).trim();
+            switch (line.substring(0, eq)) {
+                case "offset": offset = Long.parseLong(value); break;
+                case "lines": lineCount = Long.parseLong(value); break;
+                case "metrics": metrics = value; break;
+                case "run": runNames.add(value); break;
+                default: break;
+            }
+        }
+
+        // Runs écrits avec d'autres métriques (iot.summary.extraMetrics modifié) ou un autre format
+        // de clé : illisibles
+        if (offset < 0 || !metricsSignature().equals(metrics)) {
+            System.out.println("Point de reprise ignoré (métriques différentes ou manifeste invalide) : " + description);
+            return null;
+        }
+
+        List<Path> runs = new ArrayList<>();
+        try {
+            for (String name : runNames) {
+                Path run = Files.createTempFile("summarize-run-", ".bin");
+                runs.add(run);
+                store.get(name, run);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            throw e;
+        }
+
+        storedRuns.addAll(runNames);
+        lastSave = System.currentTimeMillis();
+        return new Resume(offset, lineCount, runs);
+    }
+
+    public boolean due() {
+        return !lost && System.currentTimeMillis() - lastSave >= intervalMs;
+    }
+
+    // Temps restant avant le prochain point (0 = dû)
+    public long msUntilDue() {
+        return Math.max(0, intervalMs - (System.currentTimeMillis() - lastSave));
+    }
+
+    // runs : tous les runs de l'agrégat, dans l'ordre de création (les premiers sont déjà stockés)
+    public void save(long offset, long lineCount, List<Path> runs) throws IOException {
+        if (lost) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        int firstNew = storedRuns.size();
+        for (int i = firstNew; i < runs.size(); i++) {
+            String name = String.format("run-%s-%04d.bin", owner, i);
+            store.put(name, runs.get(i));
+            storedRuns.add(name);
+            bytes += Files.size(runs.get(i));
+        }
+
+        StringBuilder manifest = new StringBuilder()
+                .append("offset=").append(offset).append('\n')
+                .append("lines=").append(lineCount).append('\n')
+                .append("metrics=").append(metricsSignature()).append('\n');
+        for (String name : storedRuns) {
+            manifest.append("run=").append(name).append('\n');
+        }
+        String version = store.putManifest(manifest.toString(), manifestVersion);
+        if (version == null) {
+            // Un autre worker a repris ce fichier : ses points de reprise font foi. Seuls les runs
+            // que ce point venait d'écrire ne sont référencés par aucun manifeste.
+            lost = true;
+            store.delete(new ArrayList<>(storedRuns.subList(firstNew, storedRuns.size())));
+            System.out.println("Point de reprise repris par un autre worker, plus d'écriture → " + description);
+            return;
+        }
+        manifestVersion = version;
+
+        lastSave = System.currentTimeMillis();
+        System.out.println("Point de reprise : octet " + offset + ", " + lineCount + " lignes, "
+                + bytes / 1024 + " Ko écrits en " + (lastSave - start) + " ms → " + description);
+    }
+
+    // Après le succès du résumé : manifeste d'abord (le point devient invalide), puis les runs.
+    // Point repris par un autre worker : seuls les runs de cette instance absents de tout manifeste
+    // ont déjà été supprimés, le reste appartient au gagnant.
+    public void clear() throws IOException {
+        if (manifestVersion == null || lost) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        names.add(MANIFEST);
+        store.delete(names);
+        store.delete(storedRuns);
+    }
+
+    // Métriques des runs, précédées du format de clé (ordre de tri des runs) ; les métriques
+    // supplémentaires sont marquées ":double" (totaux en bits IEEE, format différent des anciens runs)
+    private static String metricsSignature() {
+        List<String> names = ColumnPlan.metricNames();
+        for (int m = ColumnPlan.HISTORIC_METRICS; m < names.size(); m++) {
+            names.set(m, names.get(m) + ":double");
+        }
+        return "SrcIP|DstIP|Date:" + String.join(",", names);
+    }
+}
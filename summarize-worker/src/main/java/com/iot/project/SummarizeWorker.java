@@ -1,23 +1,40 @@
 package com.iot.project;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SummarizeWorker {
 
-    // Structure pour garder les sommes
-    static class Aggregate {
-        long totalFlowDuration;
-        long totalFwdPkt;
-    }
+    // Budget mémoire de l'agrégation (Mo). 0 = illimité, tout reste en mémoire.
+    // Au-delà, tri + déversement sur disque puis fusion k-way (voir SpillingAggregator).
+    private static final long MEMORY_BUDGET_MB =
+            Long.getLong("iot.summarize.memoryBudgetMb", 0L);
+
+    // Sketches émis avec le résumé : compteurs par top-K (Space-Saving) et précision HyperLogLog
+    static final int SKETCH_CAPACITY = Integer.getInteger("iot.sketch.capacity", 10000);
+    static final int SKETCH_HLL_PRECISION = Integer.getInteger("iot.sketch.hllPrecision", 8);
+
+    // Points de reprise : premier tour de lecture (Mo par thread) ; les tours suivants sont calés
+    // sur l'échéance du prochain point d'après le débit mesuré
+    private static final long CHECKPOINT_SEGMENT_MB =
+            Long.getLong("iot.summarize.checkpointSegmentMb", 64L);
 
     public static void main(String[] args) {
         if (args.length != 2) {
@@ -38,106 +55,320 @@ public class SummarizeWorker {
     }
 
     public static void summarize(String inputCsv, String outputCsv) throws IOException, CsvValidationException {
-        // Map clé -> agrégat
-        Map<String, Aggregate> aggregates = new HashMap<>();
+        summarizeSharded(inputCsv, List.of(outputCsv));
+    }
 
-        try (CSVReader reader = new CSVReader(
-                new FileReader(inputCsv, StandardCharsets.UTF_8))) {
+    // Résumé partitionné : une sortie par shard, la ligne (Date,SrcIP,DstIP) va dans le shard
+    // de sa SrcIP (même fonction que le consolidateur, voir shardOf).
+    // Renvoie le nombre de lignes écrites par shard.
+    public static long[] summarizeSharded(String inputCsv, List<String> outputCsvs)
+            throws IOException, CsvValidationException {
+        return summarizeSharded(inputCsv, outputCsvs, null);
+    }
 
-            // ---- 1) Lire l’entête ----
-            String[] header = reader.readNext(); // peut lancer CsvValidationException
-            if (header == null) {
-                throw new IOException("CSV vide : " + inputCsv);
+    // Idem, et écrit en plus les sketches (top-K, fan-out) de chaque shard dans sketchOutputs
+    // (même ordre que outputCsvs ; null = pas de sketches)
+    public static long[] summarizeSharded(String inputCsv, List<String> outputCsvs, List<String> sketchOutputs)
+            throws IOException, CsvValidationException {
+        return summarizeSharded(inputCsv, outputCsvs, sketchOutputs, 1);
+    }
+
+    // Idem, en lisant le fichier brut par `threads` plages parallèles (threads <= 1 : lecture séquentielle)
+    public static long[] summarizeSharded(String inputCsv, List<String> outputCsvs, List<String> sketchOutputs,
+                                          int threads)
+            throws IOException, CsvValidationException {
+        return summarizeSharded(inputCsv, outputCsvs, sketchOutputs, threads, null);
+    }
+
+    // Idem, avec points de reprise périodiques (null = aucun) : un résumé interrompu reprend
+    // à l'octet et avec l'agrégat partiel du dernier point au lieu de repartir de zéro.
+    public static long[] summarizeSharded(String inputCsv, List<String> outputCsvs, List<String> sketchOutputs,
+                                          int threads, SummarizeCheckpoint checkpoint)
+            throws IOException, CsvValidationException {
+        try (SummaryWriter writer = new SummaryWriter(outputCsvs)) {
+            if (sketchOutputs != null) {
+                writer.enableSketches(SKETCH_CAPACITY, SKETCH_HLL_PRECISION);
             }
 
-            // Trouver les index des colonnes qui nous intéressent
-            int idxTimestamp = findIndex(header, "Timestamp");
-            int idxSrcIp = findIndex(header, "Src IP");
-            int idxDstIp = findIndex(header, "Dst IP");
-            int idxFlowDur = findIndex(header, "Flow Duration");
-            int idxTotFwdPkt = findIndex(header, "Tot Fwd Pkts");
+            aggregate(inputCsv, writer, Math.max(1, threads), checkpoint);
 
-            if (idxTimestamp == -1 || idxSrcIp == -1 || idxDstIp == -1
-                    || idxFlowDur == -1 || idxTotFwdPkt == -1) {
-                throw new IOException("Certaines colonnes nécessaires sont introuvables dans le CSV");
+            if (sketchOutputs != null) {
+                List<TrafficSketches> sketches = writer.sketches();
+                for (int i = 0; i < sketchOutputs.size(); i++) {
+                    sketches.get(i).writeTo(Path.of(sketchOutputs.get(i)));
+                }
             }
+            return writer.rowsPerShard();
+        }
+    }
 
-            // ---- 2) Lire toutes les lignes ----
-            String[] line;
-            long lineCount = 0;
+    // Shard d'une ligne : fonction de SrcIP (String.hashCode est stable entre JVM)
+    public static int shardOf(String srcIp, int shardCount) {
+        return Math.floorMod(srcIp.hashCode(), shardCount);
+    }
 
-            while ((line = reader.readNext()) != null) { // readNext peut aussi lancer CsvValidationException
-                lineCount++;
+    // Agrège le fichier brut puis émet les groupes vers le writer.
+    // Au-delà de MEMORY_BUDGET_MB, les agrégats partiels sont déversés sur disque (SpillingAggregator).
+    // Les colonnes sont résolues une fois par fichier (ColumnPlan) et seules celles-ci sont découpées.
+    //
+    // threads > 1 : les données sont coupées en plages d'octets alignées sur les fins de ligne, chaque
+    // plage est agrégée par un thread dans une Map locale, vidée par blocs dans l'agrégateur commun
+    // (qui reste borné par le budget). Avec checkpoint : lecture par tours, un point de reprise pouvant
+    // être écrit entre deux tours (offset exact). Le premier tour lit CHECKPOINT_SEGMENT_MB par thread,
+    // chaque tour suivant ce que le débit mesuré permet de lire d'ici l'échéance du prochain point :
+    // un fichier lu avant cette échéance est découpé au plus une fois.
+    // Le découpage suppose un enregistrement par ligne (pas de retour à la ligne dans un champ entre
+    // guillemets), ce qui est le cas des exports CICFlowMeter ; sans découpage, les deux sont acceptés.
+    static void aggregate(String inputCsv, SummaryWriter writer, int threads, SummarizeCheckpoint checkpoint)
+            throws IOException {
+        int metricCount = ColumnPlan.metricCount();
+        // Map clé -> totaux des métriques (bornée en mémoire)
+        SpillingAggregator aggregates = new SpillingAggregator(MEMORY_BUDGET_MB * 1024L * 1024L, metricCount);
 
-                String timestamp = line[idxTimestamp];
-                String srcIp = line[idxSrcIp];
-                String dstIp = line[idxDstIp];
-                String flowDurStr = line[idxFlowDur];
-                String totFwdPktStr = line[idxTotFwdPkt];
+        // Taille max d'une Map locale avant vidage : la moitié du budget, répartie entre les threads
+        int flushEntries = (threads == 1) ? 0 : (MEMORY_BUDGET_MB > 0)
+                ? (int) Math.max(1024, MEMORY_BUDGET_MB * 1024L * 1024L / 2 / threads / (150 + 8L * metricCount))
+                : 1 << 18;
 
-                // Extraire la date (partie avant l'espace)
-                String date = extractDate(timestamp);
+        try (FileChannel channel = FileChannel.open(Path.of(inputCsv), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // ---- 1) Lire l’entête (première ligne) et construire le plan de colonnes ----
+            long dataStart = nextLineStart(channel, 1);
+            ByteBuffer headerBytes = ByteBuffer.allocate((int) dataStart);
+            channel.read(headerBytes, 0);
+            String[] header;
+            try (ProjectedLineScanner scanner = new ProjectedLineScanner(new StringReader(
+                    new String(headerBytes.array(), StandardCharsets.UTF_8)))) {
+                header = scanner.readHeader();
+            }
+            if (header.length == 0) {
+                throw new IOException("CSV vide : " + inputCsv);
+            }
+            ColumnPlan plan = ColumnPlan.forHeader(header);
 
-                long flowDur = parseLongSafe(flowDurStr);
-                long totFwdPkt = parseLongSafe(totFwdPktStr);
+            // ---- 2) Reprise éventuelle : agrégat partiel et octet atteint au dernier point ----
+            long offset = dataStart;
+            long lineCount = 0;
+            SummarizeCheckpoint.Resume resume = (checkpoint != null) ? checkpoint.resume() : null;
+            if (resume != null && resume.offset >= dataStart && resume.offset <= size) {
+                aggregates.adoptRuns(resume.runs);
+                offset = resume.offset;
+                lineCount = resume.lineCount;
+                System.out.println("Reprise au point de reprise : octet " + offset + " / " + size
+                        + " (" + lineCount + " lignes déjà agrégées)");
+            }
 
-                // Clé : Date|SrcIP|DstIP
-                String key = date + "|" + srcIp + "|" + dstIp;
+            // ---- 3) Lire les lignes, par tours [offset, roundEnd) ----
+            long segmentBytes = CHECKPOINT_SEGMENT_MB * 1024L * 1024L * threads;
+            long roundBytes = (checkpoint != null) ? segmentBytes : Long.MAX_VALUE;
+            ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+            try {
+                while (offset < size) {
+                    long roundStart = System.currentTimeMillis();
+                    long roundEnd = (size - offset <= roundBytes) ? size : nextLineStart(channel, offset + roundBytes);
+                    lineCount += aggregateRound(channel, offset, roundEnd, threads, plan, aggregates, flushEntries, pool);
+                    long readBytes = roundEnd - offset;
+                    offset = roundEnd;
 
-                Aggregate agg = aggregates.get(key);
-                if (agg == null) {
-                    agg = new Aggregate();
-                    aggregates.put(key, agg);
+                    if (checkpoint != null && offset < size) {
+                        if (checkpoint.due()) {
+                            checkpoint.save(offset, lineCount, aggregates.checkpointRuns());
+                        }
+                        // Tour suivant : débit du tour écoulé x temps restant avant le prochain point
+                        long roundMs = Math.max(1, System.currentTimeMillis() - roundStart);
+                        double bytesPerMs = (double) readBytes / roundMs;
+                        roundBytes = (long) Math.max(segmentBytes, Math.min(Long.MAX_VALUE / 2.0,
+                                bytesPerMs * checkpoint.msUntilDue()));
+                    }
+                }
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
                 }
+            }
 
-                agg.totalFlowDuration += flowDur;
-                agg.totalFwdPkt += totFwdPkt;
+            System.out.println("Nombre de lignes lues : " + lineCount
+                    + (threads > 1 ? " (" + threads + " plages parallèles)" : ""));
+            if (aggregates.spilledRuns() == 0) {
+                System.out.println("Nombre de groupes (Date,SrcIP,DstIP) : " + aggregates.groupsInMemory());
+            } else {
+                System.out.println("Agrégats déversés sur disque : " + aggregates.spilledRuns() + " runs");
             }
+        }
+
+        // ---- 4) Écrire le(s) fichier(s) résumé ----
+        aggregates.emit(writer);
+    }
 
-            System.out.println("Nombre de lignes lues : " + lineCount);
-            System.out.println("Nombre de groupes (Date,SrcIP,DstIP) : " + aggregates.size());
+    // Agrège [start, end) : dans le thread courant, ou en `threads` plages alignées sur les lignes
+    private static long aggregateRound(FileChannel channel, long start, long end, int threads, ColumnPlan plan,
+                                       SpillingAggregator aggregates, int flushEntries, ExecutorService pool)
+            throws IOException {
+        if (threads == 1) {
+            return aggregateRange(channel, start, end, plan, aggregates, 0);
+        }
+
+        long[] bounds = new long[threads + 1];
+        bounds[0] = start;
+        bounds[threads] = end;
+        for (int i = 1; i < threads; i++) {
+            bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, start + (end - start) * i / threads));
+        }
+
+        List<Future<Long>> chunks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            long from = bounds[i];
+            long to = Math.max(from, bounds[i + 1]);
+            chunks.add(pool.submit(() -> aggregateRange(channel, from, to, plan, aggregates, flushEntries)));
+        }
+
+        long lineCount = 0;
+        try {
+            for (Future<Long> chunk : chunks) {
+                lineCount += chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Agrégation parallèle interrompue", e);
+        } catch (ExecutionException e) {
+            // Cause relancée telle quelle (IOException, RuntimeException, Error), enveloppée sinon
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Échec de l'agrégation d'une plage", cause);
         }
+        return lineCount;
+    }
+
+    // Agrège une plage d'octets du fichier ; renvoie le nombre de lignes lues.
+    // flushEntries = 0 : ajout direct dans l'agrégateur (un seul thread) ;
+    // sinon Map locale vidée dans l'agrégateur commun tous les flushEntries groupes.
+    private static long aggregateRange(FileChannel channel, long start, long end, ColumnPlan plan,
+                                       SpillingAggregator aggregates, int flushEntries) throws IOException {
+        Map<String, long[]> local = (flushEntries > 0) ? new HashMap<>() : null;
+        long[] row = new long[ColumnPlan.metricCount()];
+        long lineCount = 0;
+
+        try (ProjectedLineScanner scanner = new ProjectedLineScanner(
+                new InputStreamReader(new RangeInputStream(channel, start, end), StandardCharsets.UTF_8))) {
+            int[] columns = plan.sourceColumns();
+            scanner.project(columns);
+
+            // values = Timestamp, Src IP, Dst IP puis les métriques, dans l'ordre du plan
+            String[] values = new String[columns.length];
+            while (scanner.next(values)) {
+                lineCount++;
+
+                for (int m = 0; m < row.length; m++) {
+                    row[m] = ColumnPlan.parse(m, values[3 + m]);
+                }
 
-        // ---- 3) Écrire le fichier résumé ----
-        try (CSVWriter writer = new CSVWriter(
-                new FileWriter(outputCsv, StandardCharsets.UTF_8))) {
-            // Header
-            String[] outHeader = {
-                "Date", "SrcIP", "DstIP",
-                "TotalFlowDuration", "TotalFwdPkt"
-            };
-            writer.writeNext(outHeader);
+                if (local == null) {
+                    aggregates.add(groupKey(values), row);
+                    continue;
+                }
 
-            // Contenu
-            for (Map.Entry<String, Aggregate> entry : aggregates.entrySet()) {
-                String key = entry.getKey();
-                Aggregate agg = entry.getValue();
+                String key = groupKey(values);
+                long[] totals = local.get(key);
+                if (totals == null) {
+                    local.put(key, row.clone());
+                } else {
+                    ColumnPlan.addInto(totals, row);
+                }
+                if (local.size() >= flushEntries) {
+                    flush(local, aggregates);
+                }
+            }
+        }
 
-                String[] parts = key.split("\\|", 3);
-                String date = parts[0];
-                String srcIp = parts[1];
-                String dstIp = parts[2];
+        if (local != null) {
+            flush(local, aggregates);
+        }
+        return lineCount;
+    }
+
+    private static void flush(Map<String, long[]> local, SpillingAggregator aggregates) throws IOException {
+        synchronized (aggregates) {
+            for (Map.Entry<String, long[]> entry : local.entrySet()) {
+                aggregates.add(entry.getKey(), entry.getValue());
+            }
+        }
+        local.clear();
+    }
 
-                String[] row = {
-                    date,
-                    srcIp,
-                    dstIp,
-                    String.valueOf(agg.totalFlowDuration),
-                    String.valueOf(agg.totalFwdPkt)
-                };
-                writer.writeNext(row);
+    // Début de la première ligne qui commence à pos ou après (octet suivant un '\n'), size sinon
+    private static long nextLineStart(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long offset = pos - 1;
+        while (offset < channel.size()) {
+            buffer.clear();
+            int n = channel.read(buffer, offset);
+            if (n <= 0) {
+                break;
             }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += n;
         }
+        return channel.size();
     }
 
-    // Trouve l'index d'une colonne par son nom
-    private static int findIndex(String[] header, String colName) {
-        for (int i = 0; i < header.length; i++) {
-            if (colName.equals(header[i].trim())) {
-                return i;
+    // Plage [start, end) d'un fichier, lue par positions absolues (canal partagé entre threads)
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!buffer.hasRemaining()) {
+                if (position >= end) {
+                    return -1;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n <= 0) {
+                    return -1;
+                }
+                position += n;
+                buffer.flip();
             }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
         }
-        return -1;
+    }
+
+    // Clé : SrcIP|DstIP|Date (values = Timestamp, Src IP, Dst IP, ...) ; l'ordre des champs est
+    // celui du tri des résumés (voir KeySorter.KEY_ORDER)
+    private static String groupKey(String[] values) {
+        return values[1] + "|" + values[2] + "|" + extractDate(values[0]);
     }
 
     // Extrait juste la date du timestamp
@@ -146,16 +377,7 @@ public class SummarizeWorker {
         if (timestamp == null) {
             return "";
         }
-        String[] parts = timestamp.split(" ");
-        return parts[0]; // première partie avant l'espace
-    }
-
-    // Convertit en long en gérant les valeurs vides / invalides
-    private static long parseLongSafe(String value) {
-        try {
-            return Long.parseLong(value.trim());
-        } catch (Exception e) {
-            return 0L;
-        }
+        int space = timestamp.indexOf(' ');
+        return (space < 0) ? timestamp : timestamp.substring(0, space); // première partie avant l'espace
     }
 }
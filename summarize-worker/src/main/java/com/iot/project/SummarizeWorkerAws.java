@@ -6,15 +6,28 @@ import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class SummarizeWorkerAws {
 
@@ -25,34 +38,110 @@ public class SummarizeWorkerAws {
     private static final String CONSOLIDATE_QUEUE_URL =
             "https://sqs.eu-west-3.amazonaws.com/123456789012/consolidate-queue";
 
+    // Nombre de shards du résumé (partitionné par hash de SrcIP, comme l'état consolidé).
+    // Doit être égal à iot.consolidated.shards côté consolidateur pour que chaque
+    // message ne touche qu'un seul shard consolidé. 1 = un seul fichier résumé.
+    private static final int SUMMARY_SHARDS =
+            Integer.getInteger("iot.summary.shards", 1);
+
+    // Sketches (top-K des paires, DstIP distinctes par SrcIP) uploadés à côté de chaque résumé
+    // (x-sketch.bin) et fusionnés par le consolidateur (-Diot.consolidator.sketches=true).
+    // Désactivés par défaut : -Diot.summary.sketches=true pour les produire.
+    private static final boolean SUMMARY_SKETCHES = Boolean.getBoolean("iot.summary.sketches");
+
+    // Ordonnancement par taille : à partir de LARGE_FILE_MB, un fichier passe dans la voie "gros
+    // fichiers" (LARGE_LANE_SLOTS à la fois, chacun lu en CHUNK_THREADS plages parallèles) ;
+    // les autres passent par la voie rapide (pool à concurrence adaptative), plus petits d'abord.
+    private static final long LARGE_FILE_MB =
+            Long.getLong("iot.summarize.largeFileMb", 512L);
+    private static final int LARGE_LANE_SLOTS =
+            Integer.getInteger("iot.summarize.largeLaneSlots", 1);
+    private static final int CHUNK_THREADS =
+            Integer.getInteger("iot.summarize.chunkThreads", Runtime.getRuntime().availableProcessors());
+
+    // Gros fichiers reçus alors que leur voie est pleine : ils attendent localement (message
+    // prolongé par le heartbeat) ; au-delà de LARGE_BACKLOG en attente, le worker cesse de recevoir
+    private static final int LARGE_BACKLOG =
+            Integer.getInteger("iot.summarize.largeBacklog", 2);
+
+    // File prioritaire optionnelle, consultée avant summarize-queue à chaque poll
+    private static final String PRIORITY_QUEUE_URL =
+            System.getProperty("iot.summarize.priorityQueueUrl");
+
+    // Points de reprise d'un résumé en cours, au plus un toutes les CHECKPOINT_INTERVAL_SEC
+    // (désactivés par défaut, ex. -Diot.summarize.checkpointIntervalSec=300) :
+    // dans s3://<bucket>/checkpoints/summarize/ par défaut (reprise sur n'importe quel worker),
+    // ou dans iot.summarize.checkpointDir (reprise sur la même machine seulement)
+    private static final long CHECKPOINT_INTERVAL_SEC =
+            Long.getLong("iot.summarize.checkpointIntervalSec", 0L);
+    private static final String CHECKPOINT_DIR =
+            System.getProperty("iot.summarize.checkpointDir");
+
+    // Pendant le traitement d'un fichier, la visibilité de son message est reportée à
+    // VISIBILITY_EXTENSION_SEC toutes les VISIBILITY_EXTENSION_SEC / 3 : tant que le worker est
+    // vivant, le message n'est pas redélivré ailleurs, quel que soit le visibility timeout de la file
+    // (0 = désactivé ; SQS plafonne la visibilité totale d'un message à 12 h)
+    private static final int VISIBILITY_EXTENSION_SEC =
+            Integer.getInteger("iot.summarize.visibilityExtensionSec", 300);
+
     private final S3Client s3;
     private final SqsClient sqs;
+    private final ProcessingLedger ledger;
+
+    // Fichiers traités en parallèle (AIMD sur les signaux S3/SQS, au plus iot.concurrency.max,
+    // par défaut un par cœur) et signal de charge pour l'autoscaling
+    private final AdaptiveConcurrency concurrency =
+            AdaptiveConcurrency.fromSystemProperties(Runtime.getRuntime().availableProcessors());
+    private final LoadReporter loadReporter;
+
+    // Voie "gros fichiers" : places et fichiers en attente
+    private final LargeFileLane<RawJob> largeLane = new LargeFileLane<>(LARGE_LANE_SLOTS, LARGE_BACKLOG);
+    private final ExecutorService largePool = Executors.newFixedThreadPool(LARGE_LANE_SLOTS);
+
+    // Prolongations de visibilité des messages en cours
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sqs-visibility");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public SummarizeWorkerAws() {
         this.s3 = S3Client.builder()
                 .region(REGION)
                 .credentialsProvider(DefaultCredentialsProvider.create())
+                .overrideConfiguration(o -> o.addExecutionInterceptor(concurrency))
                 .build();
 
         this.sqs = SqsClient.builder()
                 .region(REGION)
                 .credentialsProvider(DefaultCredentialsProvider.create())
+                .overrideConfiguration(o -> o.addExecutionInterceptor(concurrency))
                 .build();
+
+        this.ledger = new ProcessingLedger(s3, "summarize");
+        this.loadReporter = new LoadReporter("summarize", sqs, SUMMARIZE_QUEUE_URL, s3, concurrency);
     }
 
     public static void main(String[] args) {
         SummarizeWorkerAws worker = new SummarizeWorkerAws();
-        System.out.println("SummarizeWorker AWS démarré, écoute SQS...");
+        System.out.println("SummarizeWorker AWS démarré, écoute SQS (concurrence max "
+                + worker.concurrency.maxLimit() + ")...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(worker.concurrency.maxLimit());
+        worker.loadReporter.start();
 
         while (true) {
             try {
-                worker.pollOnce();
+                worker.pollOnce(pool);
+                worker.concurrency.pollSucceeded();
             } catch (Exception e) {
-                System.err.println("Erreur lors du poll SQS : " + e.getMessage());
+                // attente exponentielle avec jitter pour éviter de spammer en cas d'erreur répétée
+                long delayMs = worker.concurrency.pollFailed(e);
+                System.err.println("Erreur lors du poll SQS : " + e.getMessage()
+                        + " (nouvel essai dans " + delayMs + " ms)");
                 e.printStackTrace();
-                // petite pause pour éviter de spammer en cas d'erreur répétée
                 try {
-                    Thread.sleep(5000);
+                    Thread.sleep(delayMs);
                 } catch (InterruptedException ignored) {
                     Thread.currentThread().interrupt();
                 }
@@ -60,48 +149,171 @@ public class SummarizeWorkerAws {
         }
     }
 
-    private void pollOnce() throws IOException, CsvValidationException {
-        ReceiveMessageRequest req = ReceiveMessageRequest.builder()
-                .queueUrl(SUMMARIZE_QUEUE_URL)
-                .maxNumberOfMessages(1)
-                .waitTimeSeconds(20) // long polling
-                .build();
+    // Ne reçoit que ce que la limite de concurrence permet de traiter tout de suite :
+    // les messages en attente restent visibles pour les autres workers.
+    // Tant que la voie gros fichiers a LARGE_BACKLOG fichiers en attente, rien n'est reçu.
+    private void pollOnce(ExecutorService pool) throws InterruptedException {
+        int capacity = concurrency.awaitCapacity();
+        if (!largeLane.awaitRoom(5000)) {
+            return;
+        }
 
-        List<Message> messages = sqs.receiveMessage(req).messages();
+        // File prioritaire d'abord (sans attente), summarize-queue ensuite. Avec une file prioritaire,
+        // le long polling est raccourci pour ne pas la laisser plus de 5 s sans être consultée.
+        List<RawJob> jobs = new ArrayList<>();
+        if (PRIORITY_QUEUE_URL != null) {
+            jobs.addAll(receive(PRIORITY_QUEUE_URL, capacity, 0));
+        }
+        if (jobs.isEmpty()) {
+            jobs.addAll(receive(SUMMARIZE_QUEUE_URL, capacity, PRIORITY_QUEUE_URL == null ? 20 : 5));
+        }
 
-        if (messages.isEmpty()) {
-            // Pas de message pour l'instant
-            return;
+        // Plus petits fichiers d'abord : ils libèrent la voie rapide le plus vite
+        jobs.sort(Comparator.comparingLong(job -> job.size));
+
+        for (RawJob job : jobs) {
+            if (job.size >= LARGE_FILE_MB * 1024 * 1024) {
+                // Heartbeat dès la réception : le message reste invisible pendant l'attente
+                job.heartbeat = startHeartbeat(job);
+                if (largeLane.submit(job)) {
+                    startLarge(job);
+                } else {
+                    System.out.println("Voie gros fichiers occupée, " + job.key + " en attente locale ("
+                            + largeLane.waiting() + " en attente).");
+                }
+            } else {
+                concurrency.acquire();
+                pool.execute(() -> processInPool(job, 1, false));
+            }
         }
+    }
 
-        for (Message m : messages) {
+    // Messages valides d'une file, avec la taille du fichier brut (champ "size", sinon HEAD S3)
+    private List<RawJob> receive(String queueUrl, int maxMessages, int waitSeconds) {
+        ReceiveMessageRequest req = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(Math.min(10, maxMessages))
+                .waitTimeSeconds(waitSeconds) // long polling
+                .build();
+
+        List<RawJob> jobs = new ArrayList<>();
+        for (Message m : sqs.receiveMessage(req).messages()) {
             String body = m.body();
             System.out.println("Message reçu : " + body);
 
             // On suppose que l'UploadClient envoie un JSON simple :
-            // { "bucket": "iot-traffic-aymane", "key": "raw/xxx.csv" }
+            // { "bucket": "iot-traffic-aymane", "key": "raw/xxx.csv", "size": "12345" }
             String bucket = extractJsonValue(body, "bucket");
             String key    = extractJsonValue(body, "key");
 
             if (bucket == null || key == null) {
                 System.err.println("Message invalide, pas de bucket ou key : " + body);
                 // on peut supprimer ou laisser retenter, au choix
-                deleteMessage(m);
+                deleteMessage(queueUrl, m);
+                continue;
+            }
+
+            String size = extractJsonValue(body, "size");
+            if (size != null && size.matches("\\d+")) {
+                jobs.add(new RawJob(m, queueUrl, bucket, key, Long.parseLong(size), null));
                 continue;
             }
 
-            processOneFile(bucket, key, m);
+            try {
+                HeadObjectResponse head = s3.headObject(HeadObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build());
+                jobs.add(new RawJob(m, queueUrl, bucket, key, head.contentLength(),
+                        ProcessingLedger.normalizeEtag(head.eTag())));
+            } catch (S3Exception e) {
+                // Le message reste dans la file (nouvelle tentative / DLQ), les autres continuent
+                System.err.println("Fichier brut inaccessible, message laissé dans la file : "
+                        + bucket + "/" + key + " (" + e.getMessage() + ")");
+            }
+        }
+        return jobs;
+    }
+
+    private void startLarge(RawJob job) {
+        System.out.println("Gros fichier (" + job.size / (1024 * 1024) + " Mo), lecture en "
+                + CHUNK_THREADS + " plages parallèles : " + job.key);
+        largePool.execute(() -> processInPool(job, CHUNK_THREADS, true));
+    }
+
+    // Un échec laisse le message dans la file (nouvelle tentative après le visibility timeout / DLQ).
+    // large = voie d'admission du fichier : c'est sa place (voie gros fichiers ou concurrence) qui est
+    // rendue, quel que soit le nombre de threads de lecture.
+    private void processInPool(RawJob job, int threads, boolean large) {
+        boolean success = false;
+        ScheduledFuture<?> heartbeat = (job.heartbeat != null) ? job.heartbeat : startHeartbeat(job);
+        try {
+            processOneFile(job, threads);
+            success = true;
+        } catch (Exception e) {
+            System.err.println("Échec du traitement de " + job.bucket + "/" + job.key + " : " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+            }
+            if (large) {
+                // La place passe directement au gros fichier suivant en attente
+                RawJob next = largeLane.complete();
+                if (next != null) {
+                    startLarge(next);
+                }
+            } else {
+                concurrency.release(success);
+            }
         }
     }
 
-    private void processOneFile(String bucket, String rawKey, Message originalMessage)
+    // Prolonge la visibilité du message tant que son fichier est en cours de traitement
+    private ScheduledFuture<?> startHeartbeat(RawJob job) {
+        if (VISIBILITY_EXTENSION_SEC <= 0) {
+            return null;
+        }
+        long period = Math.max(1, VISIBILITY_EXTENSION_SEC / 3);
+        return heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                sqs.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                        .queueUrl(job.queueUrl)
+                        .receiptHandle(job.message.receiptHandle())
+                        .visibilityTimeout(VISIBILITY_EXTENSION_SEC)
+                        .build());
+            } catch (RuntimeException e) {
+                // Message déjà supprimé ou limite de 12 h atteinte : le traitement continue
+                System.err.println("Visibilité non prolongée pour " + job.key + " : " + e.getMessage());
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    private void processOneFile(RawJob job, int threads)
             throws IOException, CsvValidationException {
 
+        String bucket = job.bucket;
+        String rawKey = job.key;
         System.out.println("Traitement du fichier S3 : " + bucket + "/" + rawKey);
 
+        // 0) Idempotence : ce fichier (même contenu, même ETag) a-t-il déjà été résumé ?
+        String rawEtag = (job.etag != null) ? job.etag : ProcessingLedger.normalizeEtag(
+                s3.headObject(HeadObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(rawKey)
+                        .build()).eTag());
+
+        if (ledger.isProcessed(bucket, rawKey, rawEtag)) {
+            System.out.println("Déjà traité (ledger) : " + rawKey + "@" + rawEtag + " → message supprimé.");
+            deleteMessage(job.queueUrl, job.message);
+            loadReporter.recordCompleted(1, 0);
+            return;
+        }
+
         // 1) Télécharger le fichier brut dans un fichier temporaire local
         Path tempInput = Files.createTempFile("raw-", ".csv");
-        Path tempOutput = Files.createTempFile("summary-", ".csv");
+        List<Path> tempOutputs = new ArrayList<>();
+        List<Path> tempSketches = new ArrayList<>();
 
         try {
             GetObjectRequest getReq = GetObjectRequest.builder()
@@ -109,12 +321,37 @@ public class SummarizeWorkerAws {
                     .key(rawKey)
                     .build();
 
+            // toFile() refuse d'écraser un fichier existant
+            Files.deleteIfExists(tempInput);
             s3.getObject(getReq, ResponseTransformer.toFile(tempInput));
             System.out.println("Fichier brut téléchargé : " + tempInput);
 
-            // 2) Appeler ta logique locale de résumé
-            SummarizeWorker.summarize(tempInput.toString(), tempOutput.toString());
-            System.out.println("Résumé local généré : " + tempOutput);
+            // 2) Appeler ta logique locale de résumé (un fichier par shard)
+            List<String> outputPaths = new ArrayList<>();
+            for (int shard = 0; shard < SUMMARY_SHARDS; shard++) {
+                Path tempOutput = Files.createTempFile("summary-", ".csv");
+                tempOutputs.add(tempOutput);
+                outputPaths.add(tempOutput.toString());
+            }
+            List<String> sketchPaths = null;
+            if (SUMMARY_SKETCHES) {
+                sketchPaths = new ArrayList<>();
+                for (int shard = 0; shard < SUMMARY_SHARDS; shard++) {
+                    Path tempSketch = Files.createTempFile("sketch-", ".bin");
+                    tempSketches.add(tempSketch);
+                    sketchPaths.add(tempSketch.toString());
+                }
+            }
+            SummarizeCheckpoint checkpoint = null;
+            if (CHECKPOINT_INTERVAL_SEC > 0) {
+                checkpoint = (CHECKPOINT_DIR != null)
+                        ? SummarizeCheckpoint.inDirectory(Paths.get(CHECKPOINT_DIR), rawKey, rawEtag,
+                                CHECKPOINT_INTERVAL_SEC * 1000)
+                        : SummarizeCheckpoint.inS3(s3, bucket, rawKey, rawEtag, CHECKPOINT_INTERVAL_SEC * 1000);
+            }
+            long[] rowsPerShard = SummarizeWorker.summarizeSharded(tempInput.toString(), outputPaths, sketchPaths,
+                    threads, checkpoint);
+            System.out.println("Résumé local généré : " + outputPaths);
 
             // 3) Déterminer la clé de sortie pour le résumé
             Path rawPath = Paths.get(rawKey);
@@ -126,42 +363,127 @@ public class SummarizeWorkerAws {
             }
             String fileName = rawFileName.toString(); // ex: data-20221207.csv
             String summaryFileName = fileName.replace(".csv", "-summary.csv");
-            String summaryKey = "summaries/" + summaryFileName;
-
-            // 4) Uploader le résumé vers S3
-            PutObjectRequest putReq = PutObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(summaryKey)
-                    .build();
 
-            s3.putObject(putReq, tempOutput);
-            System.out.println("Résumé uploadé vers S3 : " + bucket + "/" + summaryKey);
-
-            // 5) Envoyer un message à la queue de consolidation
-            String nextMessageBody = "{ \"bucket\": \"" + bucket + "\", \"key\": \"" + summaryKey + "\" }";
+            for (int shard = 0; shard < SUMMARY_SHARDS; shard++) {
+                if (SUMMARY_SHARDS > 1 && rowsPerShard[shard] == 0) {
+                    continue; // shard vide : rien à consolider
+                }
+                String summaryKey = summaryKey(summaryFileName, shard);
+
+                // 4) Uploader le résumé vers S3
+                PutObjectRequest putReq = PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(summaryKey)
+                        .build();
+
+                s3.putObject(putReq, tempOutputs.get(shard));
+                System.out.println("Résumé uploadé vers S3 : " + bucket + "/" + summaryKey);
+
+                // 4bis) Uploader les sketches du shard à côté du résumé
+                String sketchKey = null;
+                if (SUMMARY_SKETCHES) {
+                    sketchKey = summaryKey.replace("-summary.csv", "-sketch.bin");
+                    s3.putObject(PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(sketchKey)
+                            .build(), tempSketches.get(shard));
+                    System.out.println("Sketches uploadés vers S3 : " + bucket + "/" + sketchKey);
+                }
+
+                // 5) Envoyer un message à la queue de consolidation
+                sendConsolidateMessage(bucket, summaryKey, sketchKey, rawEtag, shard);
+            }
 
-            SendMessageRequest sendReq = SendMessageRequest.builder()
-                    .queueUrl(CONSOLIDATE_QUEUE_URL)
-                    .messageBody(nextMessageBody)
-                    .build();
+            // 5bis) Inscrire le fichier dans le registre avant d'acquitter le message
+            ledger.markProcessed(bucket, rawKey, rawEtag);
 
-            sqs.sendMessage(sendReq);
-            System.out.println("Message envoyé à consolidate-queue : " + nextMessageBody);
+            // 5ter) Le résumé est publié : ses points de reprise ne servent plus
+            if (checkpoint != null) {
+                try {
+                    checkpoint.clear();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Points de reprise non supprimés pour " + rawKey + " : " + e.getMessage());
+                }
+            }
 
             // 6) Supprimer le message original de la queue summarize-queue
-            deleteMessage(originalMessage);
+            deleteMessage(job.queueUrl, job.message);
             System.out.println("Message SQS d'origine supprimé (traitement OK).");
+            loadReporter.recordCompleted(1, Arrays.stream(rowsPerShard).sum());
 
         } finally {
             // Nettoyer les fichiers temporaires
             Files.deleteIfExists(tempInput);
-            Files.deleteIfExists(tempOutput);
+            for (Path tempOutput : tempOutputs) {
+                Files.deleteIfExists(tempOutput);
+            }
+            for (Path tempSketch : tempSketches) {
+                Files.deleteIfExists(tempSketch);
+            }
+        }
+    }
+
+    // 1 shard : summaries/x-summary.csv ; N shards : summaries/shards-N/shard-XXXX/x-summary.csv
+    private static String summaryKey(String summaryFileName, int shard) {
+        if (SUMMARY_SHARDS == 1) {
+            return "summaries/" + summaryFileName;
+        }
+        return String.format("summaries/shards-%d/shard-%04d/%s", SUMMARY_SHARDS, shard, summaryFileName);
+    }
+
+    private void sendConsolidateMessage(String bucket, String summaryKey, String sketchKey,
+                                        String rawEtag, int shard) {
+        // L'ETag du fichier brut identifie le résumé de façon stable (même si on le régénère)
+        String nextMessageBody = "{ \"bucket\": \"" + bucket + "\", \"key\": \"" + summaryKey
+                + "\", \"etag\": \"" + rawEtag + "\"";
+        if (sketchKey != null) {
+            nextMessageBody += ", \"sketch\": \"" + sketchKey + "\"";
+        }
+        if (SUMMARY_SHARDS > 1) {
+            nextMessageBody += ", \"shard\": \"" + shard + "\", \"shards\": \"" + SUMMARY_SHARDS + "\"";
+        }
+        nextMessageBody += " }";
+
+        SendMessageRequest.Builder sendReq = SendMessageRequest.builder()
+                .queueUrl(CONSOLIDATE_QUEUE_URL)
+                .messageBody(nextMessageBody);
+
+        // File FIFO : un groupe par shard => SQS ne livre qu'un message d'un shard à la fois,
+        // chaque consolidateur "possède" donc un shard pendant qu'il le traite.
+        if (CONSOLIDATE_QUEUE_URL.endsWith(".fifo")) {
+            sendReq.messageGroupId("shard-" + shard)
+                    .messageDeduplicationId(UUID.nameUUIDFromBytes(
+                            (summaryKey + "@" + rawEtag).getBytes(StandardCharsets.UTF_8)).toString());
+        }
+
+        sqs.sendMessage(sendReq.build());
+        System.out.println("Message envoyé à consolidate-queue : " + nextMessageBody);
+    }
+
+    // Fichier brut à résumer : message d'origine (et sa file), taille, ETag s'il est déjà connu
+    private static class RawJob {
+        final Message message;
+        final String queueUrl;
+        final String bucket;
+        final String key;
+        final long size;
+        final String etag;
+        // Prolongation de visibilité démarrée à la réception (voie gros fichiers), sinon null
+        ScheduledFuture<?> heartbeat;
+
+        RawJob(Message message, String queueUrl, String bucket, String key, long size, String etag) {
+            this.message = message;
+            this.queueUrl = queueUrl;
+            this.bucket = bucket;
+            this.key = key;
+            this.size = size;
+            this.etag = etag;
         }
     }
 
-    private void deleteMessage(Message m) {
+    private void deleteMessage(String queueUrl, Message m) {
         DeleteMessageRequest delReq = DeleteMessageRequest.builder()
-                .queueUrl(SUMMARIZE_QUEUE_URL)
+                .queueUrl(queueUrl)
                 .receiptHandle(m.receiptHandle())
                 .build();
         sqs.deleteMessage(delReq);
@@ -0,0 +1,105 @@
+package com.iot.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Écrit les lignes d'un résumé (Date,SrcIP,DstIP,TotalFlowDuration,TotalFwdPkt + métriques
+// configurées, voir ColumnPlan), réparties par shard de SrcIP quand plusieurs sorties sont données.
+// Les groupes arrivent triés par clé (KeySorter.KEY_ORDER) : chaque fichier est trié par
+// (SrcIP, DstIP, Date), donc déterministe (diff possible entre deux exécutions) et fusionnable
+// en flux avec l'état consolidé.
+public final class SummaryWriter implements Closeable {
+
+    private final List<CsvRowWriter> writers = new ArrayList<>();
+    private final long[] rowsPerShard;
+    // Sketches par shard (null = désactivés)
+    private List<TrafficSketches> sketches;
+    // SrcIP de la dernière ligne écrite et son shard
+    private String lastSrcIp;
+    private int lastShard;
+
+    public SummaryWriter(List<String> outputCsvs) throws IOException {
+        this.rowsPerShard = new long[outputCsvs.size()];
+
+        try {
+            for (String outputCsv : outputCsvs) {
+                CsvRowWriter writer = new CsvRowWriter(outputCsv);
+                writers.add(writer);
+
+                // Header
+                List<String> outHeader = new ArrayList<>(List.of("Date", "SrcIP", "DstIP"));
+                outHeader.addAll(ColumnPlan.metricNames());
+                writer.row(outHeader.toArray(new String[0]));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Alimente aussi un TrafficSketches par shard avec chaque groupe écrit
+    public void enableSketches(int capacity, int hllPrecision) {
+        sketches = new ArrayList<>();
+        for (int i = 0; i < writers.size(); i++) {
+            sketches.add(new TrafficSketches(capacity, hllPrecision));
+        }
+    }
+
+    public List<TrafficSketches> sketches() {
+        return (sketches == null) ? null : Collections.unmodifiableList(sketches);
+    }
+
+    // key = "SrcIP|DstIP|Date", totals = une valeur par métrique (ordre de ColumnPlan.metricNames).
+    // Les champs sont recopiés depuis la clé, sans découpage en Strings.
+    public void write(String key, long[] totals) throws IOException {
+        int srcEnd = key.indexOf('|');
+        int dstEnd = key.indexOf('|', srcEnd + 1);
+
+        // Lignes triées par SrcIP : shard (et SrcIP des sketches) recalculés seulement quand elle change
+        if (lastSrcIp == null || lastSrcIp.length() != srcEnd || !key.startsWith(lastSrcIp)) {
+            lastSrcIp = key.substring(0, srcEnd);
+            int shardCount = writers.size();
+            lastShard = (shardCount == 1) ? 0 : SummarizeWorker.shardOf(lastSrcIp, shardCount);
+        }
+        int shard = lastShard;
+
+        CsvRowWriter writer = writers.get(shard);
+        writer.field(key, dstEnd + 1, key.length())
+                .field(key, 0, srcEnd)
+                .field(key, srcEnd + 1, dstEnd);
+        for (int m = 0; m < totals.length; m++) {
+            writer.field(ColumnPlan.emitted(m, totals[m]));
+        }
+        writer.endRow();
+        rowsPerShard[shard]++;
+
+        if (sketches != null) {
+            sketches.get(shard).add(lastSrcIp, key.substring(srcEnd + 1, dstEnd),
+                    totals[ColumnPlan.FLOW_DURATION], totals[ColumnPlan.FWD_PKT]);
+        }
+    }
+
+    public long[] rowsPerShard() {
+        return rowsPerShard.clone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (CsvRowWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+}
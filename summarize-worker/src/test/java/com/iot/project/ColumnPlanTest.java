@@ -0,0 +1,75 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Résolution de l'en-tête et sommes des métriques (décimales : arrondi unique à l'émission)
+class ColumnPlanTest {
+
+    // 0.4 x 10 : arrondi ligne à ligne = 0, somme exacte arrondie une fois = 4
+    @Test
+    void decimalMetricIsRoundedOnceAtEmit() {
+        int decimal = ColumnPlan.HISTORIC_METRICS;
+        long[] totals = new long[decimal + 1];
+        long[] row = new long[decimal + 1];
+        for (int i = 0; i < 10; i++) {
+            row[ColumnPlan.FLOW_DURATION] = ColumnPlan.parse(ColumnPlan.FLOW_DURATION, "12");
+            row[ColumnPlan.FWD_PKT] = ColumnPlan.parse(ColumnPlan.FWD_PKT, "");
+            row[decimal] = ColumnPlan.parse(decimal, "0.4");
+            ColumnPlan.addInto(totals, row);
+        }
+
+        assertEquals(120, ColumnPlan.emitted(ColumnPlan.FLOW_DURATION, totals[ColumnPlan.FLOW_DURATION]));
+        assertEquals(0, ColumnPlan.emitted(ColumnPlan.FWD_PKT, totals[ColumnPlan.FWD_PKT]));
+        assertEquals(4, ColumnPlan.emitted(decimal, totals[decimal]));
+    }
+
+    @Test
+    void invalidValuesCountZero() {
+        int decimal = ColumnPlan.HISTORIC_METRICS;
+        assertEquals(3, ColumnPlan.parse(ColumnPlan.FWD_PKT, "2.6"));
+        for (String value : new String[]{"", "abc", "NaN", "Infinity"}) {
+            assertEquals(0, ColumnPlan.parse(ColumnPlan.FWD_PKT, value), value);
+            assertEquals(0, ColumnPlan.emitted(decimal, ColumnPlan.parse(decimal, value)), value);
+        }
+    }
+
+    // Les sommes décimales traversent les runs déversés sur disque et leur fusion sans arrondi
+    @Test
+    void decimalTotalsSurviveSpilledRuns(@TempDir Path dir) throws Exception {
+        int metricCount = ColumnPlan.HISTORIC_METRICS + 1;
+        SpillingAggregator aggregates = new SpillingAggregator(1, metricCount);
+        long[] row = new long[metricCount];
+        for (int i = 0; i < 9; i++) {
+            row[ColumnPlan.FLOW_DURATION] = ColumnPlan.parse(ColumnPlan.FLOW_DURATION, "7");
+            row[ColumnPlan.HISTORIC_METRICS] = ColumnPlan.parse(ColumnPlan.HISTORIC_METRICS, "1.3");
+            aggregates.add("10.0.0.1|192.168.0.1|2022-12-01", row);
+        }
+        assertEquals(9, aggregates.spilledRuns());
+
+        Path output = dir.resolve("summary.csv");
+        try (SummaryWriter writer = new SummaryWriter(List.of(output.toString()))) {
+            aggregates.emit(writer);
+        }
+
+        // 1.3 x 9 = 11.7 -> 12 (arrondi ligne à ligne : 9)
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(2, lines.size());
+        assertEquals("\"2022-12-01\",\"10.0.0.1\",\"192.168.0.1\",\"63\",\"0\",\"12\"", lines.get(1));
+    }
+
+    // Colonnes en double après normalisation : la première est lue
+    @Test
+    void firstOfCollidingColumnsIsRead() throws Exception {
+        ColumnPlan plan = ColumnPlan.forHeader(new String[]{
+                "Flow ID", "Src IP", "src_ip", "Dst IP", "Timestamp", "Flow Duration", "Tot Fwd Pkts"});
+        assertArrayEquals(new int[]{4, 1, 3, 5, 6}, plan.sourceColumns());
+    }
+}
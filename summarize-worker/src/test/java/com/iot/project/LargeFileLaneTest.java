@@ -0,0 +1,98 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Voie gros fichiers : plusieurs gros fichiers reçus d'un coup sont tous traités, un par place,
+// sans qu'aucun ne soit rendu à la file
+class LargeFileLaneTest {
+
+    @Test
+    void burstWaitsLocallyInArrivalOrder() throws InterruptedException {
+        LargeFileLane<String> lane = new LargeFileLane<>(1, 2);
+
+        // Un lot de 4 gros fichiers : un démarre, les autres attendent, même au-delà du backlog
+        assertTrue(lane.submit("a"));
+        assertFalse(lane.submit("b"));
+        assertFalse(lane.submit("c"));
+        assertFalse(lane.submit("d"));
+        assertEquals(1, lane.running());
+        assertEquals(3, lane.waiting());
+
+        // Backlog plein : plus de réception tant qu'une place ne s'est pas libérée
+        assertFalse(lane.awaitRoom(10));
+
+        assertEquals("b", lane.complete());
+        assertEquals("c", lane.complete());
+        assertTrue(lane.awaitRoom(10));
+        assertEquals("d", lane.complete());
+        assertNull(lane.complete());
+        assertEquals(0, lane.running());
+        assertTrue(lane.submit("e"));
+    }
+
+    @Test
+    void burstIsProcessedWithBoundedConcurrency() throws InterruptedException {
+        int slots = 2;
+        int files = 7;
+        LargeFileLane<Integer> lane = new LargeFileLane<>(slots, 3);
+        ExecutorService pool = Executors.newFixedThreadPool(slots);
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(files);
+
+        // Même enchaînement que SummarizeWorkerAws : la place d'un fichier terminé passe au suivant
+        class Runner {
+            void start(Integer job) {
+                pool.execute(() -> {
+                    peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    done.add(job);
+                    finished.countDown();
+                    Integer next = lane.complete();
+                    if (next != null) {
+                        start(next);
+                    }
+                });
+            }
+        }
+        Runner runner = new Runner();
+
+        try {
+            for (int job = 0; job < files; job++) {
+                if (lane.submit(job)) {
+                    runner.start(job);
+                }
+            }
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Integer> sorted = new ArrayList<>(done);
+        Collections.sort(sorted);
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), sorted);
+        assertTrue(peak.get() <= slots, "au plus " + slots + " fichiers en parallèle : " + peak.get());
+        assertEquals(0, lane.running());
+        assertEquals(0, lane.waiting());
+    }
+}
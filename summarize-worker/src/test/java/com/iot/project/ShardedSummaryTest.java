@@ -0,0 +1,76 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Résumé partitionné par hash de SrcIP (iot.summary.shards)
+class ShardedSummaryTest {
+
+    // Mêmes vecteurs que côté consolidateur et ExportClient : une SrcIP va dans le même shard partout
+    @Test
+    void shardOfIsStable() {
+        assertEquals(6, SummarizeWorker.shardOf("10.0.4.32", 8));
+        assertEquals(3, SummarizeWorker.shardOf("192.168.1.10", 8));
+        assertEquals(2, SummarizeWorker.shardOf("fe80::1", 8));
+        assertEquals(2, SummarizeWorker.shardOf("10.0.0.1", 3));
+    }
+
+    // Chaque shard ne contient que les SrcIP de ce shard, et leur union est le résumé non partitionné
+    @Test
+    void shardsPartitionTheSummary(@TempDir Path dir) throws Exception {
+        Path raw = writeRaw(dir.resolve("raw.csv"), 5000, 7);
+
+        Path single = dir.resolve("single.csv");
+        SummarizeWorker.summarize(raw.toString(), single.toString());
+
+        List<String> outputs = new ArrayList<>();
+        for (int shard = 0; shard < 4; shard++) {
+            outputs.add(dir.resolve("shard-" + shard + ".csv").toString());
+        }
+        long[] rowsPerShard = SummarizeWorker.summarizeSharded(raw.toString(), outputs);
+
+        List<String> shardedRows = new ArrayList<>();
+        for (int shard = 0; shard < 4; shard++) {
+            List<String> lines = Files.readAllLines(Path.of(outputs.get(shard)));
+            assertEquals("\"Date\",\"SrcIP\",\"DstIP\",\"TotalFlowDuration\",\"TotalFwdPkt\"", lines.get(0));
+            assertEquals(rowsPerShard[shard], lines.size() - 1);
+            for (String row : lines.subList(1, lines.size())) {
+                String srcIp = row.split(",")[1].replace("\"", "");
+                assertEquals(shard, SummarizeWorker.shardOf(srcIp, 4), row);
+            }
+            shardedRows.addAll(lines.subList(1, lines.size()));
+        }
+
+        List<String> singleLines = Files.readAllLines(Path.of(single.toString()));
+        List<String> expected = new ArrayList<>(singleLines.subList(1, singleLines.size()));
+        expected.sort(null);
+        shardedRows.sort(null);
+        assertEquals(expected, shardedRows);
+    }
+
+    // Fichier brut synthétique au format CICFlowMeter (colonnes utiles seulement)
+    static Path writeRaw(Path path, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("Flow ID,Src IP,Src Port,Dst IP,Timestamp,Flow Duration,Tot Fwd Pkts\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append('x').append(i)
+                    .append(",10.0.").append(random.nextInt(4)).append('.').append(random.nextInt(60))
+                    .append(',').append(random.nextInt(65536))
+                    .append(",192.168.").append(random.nextInt(4)).append('.').append(random.nextInt(50))
+                    .append(",2022-12-0").append(1 + random.nextInt(9)).append(" 10:").append(10 + random.nextInt(50))
+                    .append(":00,").append(random.nextInt(100_000))
+                    .append(',').append(random.nextInt(50)).append('\n');
+        }
+        Files.writeString(path, csv);
+        return path;
+    }
+}
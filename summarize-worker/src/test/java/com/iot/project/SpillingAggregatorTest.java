@@ -0,0 +1,44 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Agrégation à mémoire bornée : le résumé issu des runs déversés et fusionnés est identique,
+// octet pour octet, à celui du chemin tout en mémoire
+class SpillingAggregatorTest {
+
+    @Test
+    void spilledSummaryIsIdenticalToInMemorySummary(@TempDir Path dir) throws Exception {
+        Path raw = ShardedSummaryTest.writeRaw(dir.resolve("raw.csv"), 20_000, 11);
+
+        Path inMemory = dir.resolve("in-memory.csv");
+        SummarizeWorker.summarize(raw.toString(), inMemory.toString());
+
+        // Budget de 64 Ko : plusieurs dizaines de runs pour ~20 000 groupes
+        SpillingAggregator aggregates = new SpillingAggregator(64 * 1024, ColumnPlan.metricCount());
+        List<String> lines = Files.readAllLines(raw);
+        for (String line : lines.subList(1, lines.size())) {
+            // Flow ID,Src IP,Src Port,Dst IP,Timestamp,Flow Duration,Tot Fwd Pkts
+            String[] values = line.split(",");
+            String key = values[1] + "|" + values[3] + "|" + values[4].substring(0, values[4].indexOf(' '));
+            aggregates.add(key, new long[]{
+                    ColumnPlan.parse(ColumnPlan.FLOW_DURATION, values[5]),
+                    ColumnPlan.parse(ColumnPlan.FWD_PKT, values[6])});
+        }
+        assertTrue(aggregates.spilledRuns() > 10, aggregates.spilledRuns() + " runs");
+
+        Path spilled = dir.resolve("spilled.csv");
+        try (SummaryWriter writer = new SummaryWriter(List.of(spilled.toString()))) {
+            aggregates.emit(writer);
+        }
+
+        assertArrayEquals(Files.readAllBytes(inMemory), Files.readAllBytes(spilled));
+    }
+}
@@ -0,0 +1,62 @@
+package com.iot.project;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Deux workers sur le même fichier brut (message redélivré) : le manifeste n'est remplacé que par
+// celui qui l'a lu ou écrit en dernier, et les runs de chacun ne se chevauchent pas
+class SummarizeCheckpointTest {
+
+    @Test
+    void secondOwnerTakesOverAndFirstStopsWriting(@TempDir Path dir) throws Exception {
+        Path base = dir.resolve("checkpoints");
+        List<Path> runs = new ArrayList<>(List.of(run(dir, "a0")));
+
+        SummarizeCheckpoint first = SummarizeCheckpoint.inDirectory(base, "raw/x.csv", "etag", 0);
+        assertEquals(null, first.resume());
+        first.save(100, 10, runs);
+
+        // Redélivrance : le second reprend au point du premier puis écrit le sien
+        SummarizeCheckpoint second = SummarizeCheckpoint.inDirectory(base, "raw/x.csv", "etag", 0);
+        SummarizeCheckpoint.Resume resume = second.resume();
+        assertNotNull(resume);
+        assertEquals(100, resume.offset);
+        List<Path> secondRuns = new ArrayList<>(resume.runs);
+        secondRuns.add(run(dir, "b1"));
+        second.save(200, 20, secondRuns);
+
+        // Le premier perd la main : son point n'est pas écrit, ses nouveaux runs sont retirés
+        runs.add(run(dir, "a1"));
+        first.save(150, 15, runs);
+        assertFalse(first.due());
+        first.clear();
+
+        Path stored = Files.list(base).findFirst().orElseThrow();
+        assertTrue(Files.readString(stored.resolve("manifest.txt")).contains("offset=200"));
+        assertEquals(3, names(stored).size(), names(stored).toString()); // manifeste + run du premier + run du second
+
+        second.clear();
+        assertFalse(Files.exists(stored));
+    }
+
+    private static Path run(Path dir, String name) throws Exception {
+        return Files.writeString(dir.resolve(name + ".bin"), name);
+    }
+
+    private static List<String> names(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).filter(n -> !n.endsWith(".lock")).sorted().toList();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -180,10 +181,12 @@ public class UploadClient {
             client.uploadFileToS3(bucket, key, filePath);
 
             // Envoi du message SQS pour declencher Summarize Worker
+            // (la taille permet au worker d'ordonnancer sans HEAD S3)
             String message = String.format(
-                    "{ \"bucket\": \"%s\", \"key\": \"%s\" }",
+                    "{ \"bucket\": \"%s\", \"key\": \"%s\", \"size\": \"%d\" }",
                     bucket,
-                    key
+                    key,
+                    Files.size(file)
             );
             client.sendMessageToSqs(queueUrl, message);
 